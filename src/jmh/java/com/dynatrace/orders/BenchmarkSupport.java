@@ -0,0 +1,142 @@
+package com.dynatrace.orders;
+
+import com.dynatrace.orders.model.Config;
+import com.dynatrace.orders.repository.ConfigRepository;
+import com.dynatrace.orders.service.ConfigCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.AbstractClientHttpRequest;
+import org.springframework.http.client.AbstractClientHttpResponse;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.util.ReflectionUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+// wiring for benchmarks that drive the controllers and repositories without a Spring context
+final class BenchmarkSupport {
+    private BenchmarkSupport() {
+    }
+
+    // sets an @Autowired / @Value field the way the container would
+    static void inject(Object target, String fieldName, Object value) {
+        Field field = ReflectionUtils.findField(target.getClass(), fieldName);
+        if (null == field) {
+            throw new IllegalArgumentException(target.getClass().getSimpleName() + " has no field " + fieldName);
+        }
+        ReflectionUtils.makeAccessible(field);
+        ReflectionUtils.setField(field, target, value);
+    }
+
+    // Spring Data repository stand-in; the handler gets the method name and its arguments
+    static <T> T repository(Class<T> type, BiFunction<String, Object[], Object> handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                return objectMethod(proxy, method, args);
+            }
+            return handler.apply(method.getName(), args);
+        }));
+    }
+
+    static ConfigCache configCache(Collection<Config> configs) {
+        ConfigCache configCache = new ConfigCache();
+        inject(configCache, "configRepository", repository(ConfigRepository.class,
+                (method, args) -> "findAll".equals(method) ? List.copyOf(configs) : null));
+        inject(configCache, "meterRegistry", new SimpleMeterRegistry());
+        configCache.init();
+        return configCache;
+    }
+
+    // answers every request in-process with the body the responder returns for its URI, a null body is a 404
+    static ClientHttpRequestFactory stubRequestFactory(Function<URI, byte[]> responder) {
+        return (uri, method) -> new StubRequest(uri, method, responder);
+    }
+
+    private static Object objectMethod(Object proxy, Method method, Object[] args) {
+        return switch (method.getName()) {
+            case "equals" -> proxy == args[0];
+            case "hashCode" -> System.identityHashCode(proxy);
+            default -> "stub " + proxy.getClass().getInterfaces()[0].getSimpleName();
+        };
+    }
+
+    private static class StubRequest extends AbstractClientHttpRequest {
+        private final URI uri;
+        private final HttpMethod method;
+        private final Function<URI, byte[]> responder;
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream(256);
+
+        StubRequest(URI uri, HttpMethod method, Function<URI, byte[]> responder) {
+            this.uri = uri;
+            this.method = method;
+            this.responder = responder;
+        }
+
+        @Override
+        public String getMethodValue() {
+            return method.name();
+        }
+
+        @Override
+        public URI getURI() {
+            return uri;
+        }
+
+        @Override
+        protected OutputStream getBodyInternal(HttpHeaders headers) {
+            return body;
+        }
+
+        @Override
+        protected ClientHttpResponse executeInternal(HttpHeaders headers) {
+            return new StubResponse(responder.apply(uri));
+        }
+    }
+
+    private static class StubResponse extends AbstractClientHttpResponse {
+        private final byte[] body;
+        private final HttpHeaders headers = new HttpHeaders();
+
+        StubResponse(byte[] body) {
+            this.body = body;
+            headers.setContentType(MediaType.APPLICATION_JSON);
+        }
+
+        @Override
+        public int getRawStatusCode() {
+            return null == body ? 404 : 200;
+        }
+
+        @Override
+        public String getStatusText() {
+            return null == body ? "Not Found" : "OK";
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return headers;
+        }
+
+        @Override
+        public InputStream getBody() {
+            return new ByteArrayInputStream(null == body ? new byte[0] : body);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.dynatrace.orders;
+
+import com.dynatrace.orders.config.DownstreamTimeouts;
+import com.dynatrace.orders.controller.OrderController;
+import com.dynatrace.orders.model.Book;
+import com.dynatrace.orders.model.Client;
+import com.dynatrace.orders.model.Order;
+import com.dynatrace.orders.model.Payment;
+import com.dynatrace.orders.model.Storage;
+import com.dynatrace.orders.repository.BookRepository;
+import com.dynatrace.orders.repository.ClientRepository;
+import com.dynatrace.orders.repository.DownstreamCalls;
+import com.dynatrace.orders.repository.InventoryLedger;
+import com.dynatrace.orders.repository.OrderRepository;
+import com.dynatrace.orders.repository.PaymentRepository;
+import com.dynatrace.orders.repository.StorageRepository;
+import com.dynatrace.orders.service.ConfigCache;
+import com.dynatrace.orders.service.OrderLocks;
+import com.dynatrace.orders.service.OrderFlowMetrics;
+import com.dynatrace.orders.service.VerificationStage;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// The OrderController.createOrder orchestration (hard-work check, verification stage, buy and pay, save)
+// with the real repositories and RestTemplate, but with the downstream services and the database answered
+// in-process, so only the service's own overhead is measured.
+// ./gradlew jmh -PjmhIncludes=CreateOrder
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class CreateOrderBenchmark {
+    private static final String EMAIL = "client42@example.com";
+    private static final String ISBN = "9780000000042";
+
+    // true also takes the book from storage and pays for it
+    @Param({"false", "true"})
+    public boolean purchase;
+    @Param({"false", "true"})
+    public boolean parallelVerification;
+
+    private OrderController orderController;
+    private ExecutorService verificationExecutor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws JsonProcessingException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        byte[] client = objectMapper.writeValueAsBytes(new Client(42L, "Jane", "Doe", EMAIL));
+        byte[] book = objectMapper.writeValueAsBytes(new Book(42L, ISBN, "Title", "en", true, "Author", 19.99));
+        byte[] storage = objectMapper.writeValueAsBytes(new Storage(42L, ISBN, 100));
+        byte[] payment = objectMapper.writeValueAsBytes(new Payment(42L, 19.99, EMAIL, true, "Paid"));
+        byte[] empty = "[]".getBytes();
+        RestTemplate restTemplate = new RestTemplate(BenchmarkSupport.stubRequestFactory((URI uri) -> switch (uri.getPath()) {
+            case "/api/v1/clients/find" -> client;
+            case "/api/v1/books/find" -> book;
+            case "/api/v1/storage/findByISBN", "/api/v1/storage/sell-book", "/api/v1/storage/ingest-book" -> storage;
+            case "/api/v1/payment" -> payment;
+            case "/api/v1/clients", "/api/v1/books", "/api/v1/storage" -> empty;
+            default -> null;
+        }));
+
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        DownstreamTimeouts downstreamTimeouts = new DownstreamTimeouts(
+                "http://clients/api/v1/clients", "http://books/api/v1/books", "http://storage/api/v1/storage", "http://payment/api/v1/payment",
+                5000L, 5000L, 5000L, 5000L);
+        DownstreamCalls downstreamCalls = new DownstreamCalls(meterRegistry, CircuitBreakerRegistry.ofDefaults(), BulkheadRegistry.ofDefaults(),
+                downstreamTimeouts);
+        ClientRepository clientRepository = new ClientRepository(restTemplate, downstreamCalls);
+        BenchmarkSupport.inject(clientRepository, "clientBaseURL", "http://clients/api/v1/clients");
+        BookRepository bookRepository = new BookRepository(restTemplate, downstreamCalls);
+        BenchmarkSupport.inject(bookRepository, "bookBaseURL", "http://books/api/v1/books");
+        BenchmarkSupport.inject(bookRepository, "cacheMaxSize", 10_000L);
+        BenchmarkSupport.inject(bookRepository, "cacheMaxStalenessMs", 60_000L);
+        bookRepository.init();
+        // off, every order asks the storage like before
+        InventoryLedger inventoryLedger = new InventoryLedger(meterRegistry, false, 10_000L, 2);
+        StorageRepository storageRepository = new StorageRepository(restTemplate, downstreamCalls, meterRegistry, inventoryLedger, 0L, 1);
+        BenchmarkSupport.inject(storageRepository, "storageBaseURL", "http://storage/api/v1/storage");
+        PaymentRepository paymentRepository = new PaymentRepository(restTemplate, downstreamCalls);
+        BenchmarkSupport.inject(paymentRepository, "paymentBaseURL", "http://payment/api/v1/payment");
+        OrderRepository orderRepository = BenchmarkSupport.repository(OrderRepository.class,
+                (method, args) -> "save".equals(method) ? args[0] : null);
+
+        verificationExecutor = Executors.newFixedThreadPool(16);
+        VerificationStage verificationStage = new VerificationStage();
+        BenchmarkSupport.inject(verificationStage, "parallel", parallelVerification);
+        BenchmarkSupport.inject(verificationStage, "timeoutMs", 5000L);
+        BenchmarkSupport.inject(verificationStage, "executor", verificationExecutor);
+        ConfigCache configCache = BenchmarkSupport.configCache(List.of());
+        OrderFlowMetrics flowMetrics = new OrderFlowMetrics();
+        BenchmarkSupport.inject(flowMetrics, "meterRegistry", meterRegistry);
+
+        OrderLocks orderLocks = new OrderLocks();
+        BenchmarkSupport.inject(orderLocks, "meterRegistry", meterRegistry);
+        BenchmarkSupport.inject(orderLocks, "stripeCount", 1024);
+        BenchmarkSupport.inject(orderLocks, "acquireTimeoutMs", 5000L);
+        BenchmarkSupport.inject(orderLocks, "mode", "local");
+        orderLocks.init();
+
+        orderController = new OrderController();
+        BenchmarkSupport.inject(orderController, "orderRepository", orderRepository);
+        BenchmarkSupport.inject(orderController, "clientRepository", clientRepository);
+        BenchmarkSupport.inject(orderController, "bookRepository", bookRepository);
+        BenchmarkSupport.inject(orderController, "storageRepository", storageRepository);
+        BenchmarkSupport.inject(orderController, "inventoryLedger", inventoryLedger);
+        BenchmarkSupport.inject(orderController, "paymentRepository", paymentRepository);
+        BenchmarkSupport.inject(orderController, "configCache", configCache);
+        BenchmarkSupport.inject(orderController, "verificationStage", verificationStage);
+        BenchmarkSupport.inject(orderController, "flowMetrics", flowMetrics);
+        BenchmarkSupport.inject(orderController, "orderLocks", orderLocks);
+        BenchmarkSupport.inject(orderController, "objectMapper", objectMapper);
+        BenchmarkSupport.inject(orderController, "httpClientMode", "blocking");
+
+        // one order up front: a stub missing a path fails the trial here instead of benchmarking the error path
+        Order warm;
+        try {
+            warm = createOrder();
+        } catch (RuntimeException ex) {
+            throw new IllegalStateException("The warm-up order failed, check the downstream stubs", ex);
+        }
+        if (null == warm || warm.isCompleted() != purchase) {
+            throw new IllegalStateException("The warm-up order was not created: " + warm);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        verificationExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    public Order createOrder() {
+        return orderController.createOrder(new Order(0L, EMAIL, ISBN, 1, 19.99, purchase));
+    }
+}
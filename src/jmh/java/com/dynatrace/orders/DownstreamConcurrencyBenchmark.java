@@ -0,0 +1,127 @@
+package com.dynatrace.orders;
+
+import com.dynatrace.orders.config.VirtualThreads;
+import com.dynatrace.orders.model.Storage;
+import com.sun.net.httpserver.HttpServer;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+// Thread-pool vs virtual-thread request handling for an order that makes six blocking downstream calls
+// against a slow stub. One operation is a burst of concurrent orders: throughput is bursts per second,
+// the sample-time mode gives the burst latency percentiles and the per-order p50/p99 are printed on tear down.
+// Virtual threads need the benchmark JVM on Java 21: ./gradlew jmh -PjavaVersion=21 -PjmhIncludes=DownstreamConcurrency
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 3, time = 20)
+@Fork(1)
+public class DownstreamConcurrencyBenchmark {
+    private static final int DOWNSTREAM_CALLS = 6; // client, book, storage, sell-book, payment and the order save
+    private static final int TOMCAT_MAX_THREADS = 200;
+
+    @Param({"platform", "virtual"})
+    public String threads;
+    @Param({"20", "200"})
+    public int downstreamLatencyMs;
+    @Param({"1000"})
+    public int concurrentOrders;
+
+    private HttpServer stub;
+    private ExecutorService stubExecutor;
+    private CloseableHttpClient httpClient;
+    private RestTemplate restTemplate;
+    private ExecutorService executor;
+    private String url;
+    private final Recorder orderLatency = new Recorder(3);
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        byte[] body = "{\"id\":1,\"isbn\":\"9780000000001\",\"quantity\":100}".getBytes(StandardCharsets.UTF_8);
+        stub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 4096);
+        stub.createContext("/", exchange -> {
+            try {
+                Thread.sleep(downstreamLatencyMs);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        // the stub must never be the bottleneck
+        stubExecutor = Executors.newCachedThreadPool();
+        stub.setExecutor(stubExecutor);
+        stub.start();
+        url = "http://127.0.0.1:" + stub.getAddress().getPort() + "/api/v1/storage/findByISBN?isbn=9780000000001";
+
+        // the connection pool is sized above the load, so only the threading model differs between runs
+        httpClient = HttpClients.custom()
+                .setMaxConnTotal(concurrentOrders)
+                .setMaxConnPerRoute(concurrentOrders)
+                .build();
+        restTemplate = new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient));
+
+        if ("virtual".equals(threads)) {
+            executor = VirtualThreads.newExecutor();
+        } else {
+            executor = Executors.newFixedThreadPool(TOMCAT_MAX_THREADS);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Histogram histogram = orderLatency.getIntervalHistogram();
+        System.out.printf("%n%s threads, %d ms downstream: %d orders, per-order latency p50 %.1f ms, p99 %.1f ms, max %.1f ms%n",
+                threads, downstreamLatencyMs, histogram.getTotalCount(),
+                histogram.getValueAtPercentile(50) / 1000.0,
+                histogram.getValueAtPercentile(99) / 1000.0,
+                histogram.getMaxValue() / 1000.0);
+        executor.shutdownNow();
+        httpClient.close();
+        stub.stop(0);
+        stubExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    public int burstOfOrders() throws Exception {
+        List<Future<Storage>> orders = new ArrayList<>(concurrentOrders);
+        for (int i = 0; i < concurrentOrders; i++) {
+            long submittedAt = System.nanoTime();
+            orders.add(executor.submit(() -> order(submittedAt)));
+        }
+        int quantity = 0;
+        for (Future<Storage> order : orders) {
+            quantity += order.get().getQuantity();
+        }
+        return quantity;
+    }
+
+    // blocking calls one after another, like OrderController.submitOrder on a request thread
+    private Storage order(long submittedAt) {
+        Storage storage = null;
+        for (int i = 0; i < DOWNSTREAM_CALLS; i++) {
+            storage = restTemplate.getForObject(url, Storage.class);
+        }
+        orderLatency.recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - submittedAt));
+        return storage;
+    }
+}
@@ -0,0 +1,58 @@
+package com.dynatrace.orders;
+
+import com.dynatrace.orders.controller.HardworkingController;
+import com.dynatrace.orders.model.Config;
+import com.dynatrace.orders.service.ConfigCache;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Cost of simulateHardWork, which runs at the start of every order operation, at different levels of the
+// dt.work.hard config. "off" is the price every request pays when the simulation is disabled.
+// ./gradlew jmh -PjmhIncludes=HardWork
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class HardWorkBenchmark {
+    // loadRAM in MB : loadCPU in iterations
+    @Param({"off", "16:100000", "64:10000000"})
+    public String level;
+
+    private Worker worker;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ConfigCache configCache = BenchmarkSupport.configCache(List.of());
+        if (!"off".equals(level)) {
+            String[] loads = level.split(":");
+            configCache.replace(List.of(new Config("dt.work.hard", Long.parseLong(loads[1]), Long.parseLong(loads[0]), 0.0, "", true)));
+        }
+        worker = new Worker(configCache);
+    }
+
+    @Benchmark
+    public void simulateHardWork() {
+        worker.work();
+    }
+
+    private static class Worker extends HardworkingController {
+        private final ConfigCache configCache;
+
+        Worker(ConfigCache configCache) {
+            this.configCache = configCache;
+        }
+
+        void work() {
+            simulateHardWork();
+        }
+
+        @Override
+        public ConfigCache getConfigCache() {
+            return configCache;
+        }
+    }
+}
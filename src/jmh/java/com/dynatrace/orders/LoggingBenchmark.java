@@ -0,0 +1,117 @@
+package com.dynatrace.orders;
+
+import ch.qos.logback.classic.AsyncAppender;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.FileAppender;
+import com.dynatrace.orders.config.SamplingTurboFilter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// Request-thread cost of the log lines of one createOrder (controller and repository INFO lines, one disabled DEBUG):
+//   legacy  - string concatenation, URL logged on its own line, synchronous appender
+//   default - parameterized messages, synchronous appender (the default profile)
+//   prod    - parameterized messages, async appender that never blocks, 1-in-100 sampling (the prod profile)
+// Events go to a temp file with the Spring Boot console pattern. The async appender drops events when its queue
+// is full, so "prod" measures what the request pays, not how many lines get written.
+// ./gradlew jmh -PjmhIncludes=Logging
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(4)
+public class LoggingBenchmark {
+    private static final String PATTERN = "%d{yyyy-MM-dd HH:mm:ss.SSS} %5p ${PID:- } --- [%15.15t] %-40.40logger{39} : %m%n";
+
+    @Param({"legacy", "default", "prod"})
+    public String mode;
+
+    private LoggerContext context;
+    private Logger controller;
+    private Logger repository;
+    private Path file;
+    private final String email = "client42@example.com";
+    private final String isbn = "9780000000042";
+    private final String url = "http://localhost:8082/api/v1/books/find?isbn=9780000000042";
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Files.createTempFile("orders-logging", ".log");
+        context = new LoggerContext();
+
+        PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+        encoder.setContext(context);
+        encoder.setPattern(PATTERN);
+        encoder.start();
+        FileAppender<ILoggingEvent> fileAppender = new FileAppender<>();
+        fileAppender.setContext(context);
+        fileAppender.setFile(file.toString());
+        fileAppender.setEncoder(encoder);
+        fileAppender.start();
+
+        Appender<ILoggingEvent> appender = fileAppender;
+        if ("prod".equals(mode)) {
+            AsyncAppender async = new AsyncAppender();
+            async.setContext(context);
+            async.setQueueSize(8192);
+            async.setNeverBlock(true);
+            async.addAppender(fileAppender);
+            async.start();
+            appender = async;
+
+            SamplingTurboFilter sampling = new SamplingTurboFilter();
+            sampling.setContext(context);
+            sampling.addLoggerPrefix("com.dynatrace.orders");
+            sampling.setLevel("INFO");
+            sampling.setRate(100);
+            sampling.start();
+            context.addTurboFilter(sampling);
+        }
+        Logger root = context.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME);
+        root.setLevel(ch.qos.logback.classic.Level.INFO);
+        root.addAppender(appender);
+        controller = context.getLogger("com.dynatrace.orders.controller.OrderController");
+        repository = context.getLogger("com.dynatrace.orders.repository.BookRepository");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        context.stop();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public void createOrderLogs() {
+        if ("legacy".equals(mode)) {
+            controller.info("client " + email + " orders book " + isbn);
+            controller.info("Verifying book " + isbn);
+            repository.info("Checking book");
+            repository.info(url);
+            controller.info("Verifying client " + email);
+            repository.info("Checking client");
+            repository.info(url);
+            controller.info("Verifying storage " + isbn);
+            repository.info("Checking in storage");
+            repository.info(url);
+            controller.debug("Created order for book " + isbn + " client " + email);
+        } else {
+            controller.info("client {} orders book {}", email, isbn);
+            controller.info("Verifying book {}", isbn);
+            repository.info("Checking book: {}", url);
+            controller.info("Verifying client {}", email);
+            repository.info("Checking client: {}", url);
+            controller.info("Verifying storage {}", isbn);
+            repository.info("Checking in storage: {}", url);
+            controller.debug("Created order for book {} client {}", isbn, email);
+        }
+    }
+}
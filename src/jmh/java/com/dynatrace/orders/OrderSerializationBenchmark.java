@@ -0,0 +1,72 @@
+package com.dynatrace.orders;
+
+import com.dynatrace.orders.model.Order;
+import com.dynatrace.orders.model.Payment;
+import com.dynatrace.orders.model.Storage;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Jackson (de)serialization of the bodies on the order hot path: the Order request/response
+// and the Storage/Payment payloads exchanged with the downstream services.
+// ./gradlew jmh -PjmhIncludes=OrderSerialization
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class OrderSerializationBenchmark {
+    // same defaults as the mapper Spring Boot configures for the controllers
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    private Order order;
+    private Storage storage;
+    private Payment payment;
+    private byte[] orderJson;
+    private byte[] storageJson;
+    private byte[] paymentJson;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        order = new Order(42L, "client42@example.com", "9780000000042", 2, 19.99, false);
+        storage = new Storage(42L, "9780000000042", 100);
+        payment = new Payment(42L, 39.98, "client42@example.com", true, "Paid");
+        orderJson = objectMapper.writeValueAsBytes(order);
+        storageJson = objectMapper.writeValueAsBytes(storage);
+        paymentJson = objectMapper.writeValueAsBytes(payment);
+    }
+
+    @Benchmark
+    public byte[] writeOrder() throws IOException {
+        return objectMapper.writeValueAsBytes(order);
+    }
+
+    @Benchmark
+    public Order readOrder() throws IOException {
+        return objectMapper.readValue(orderJson, Order.class);
+    }
+
+    @Benchmark
+    public byte[] writeStorage() throws IOException {
+        return objectMapper.writeValueAsBytes(storage);
+    }
+
+    @Benchmark
+    public Storage readStorage() throws IOException {
+        return objectMapper.readValue(storageJson, Storage.class);
+    }
+
+    @Benchmark
+    public byte[] writePayment() throws IOException {
+        return objectMapper.writeValueAsBytes(payment);
+    }
+
+    @Benchmark
+    public Payment readPayment() throws IOException {
+        return objectMapper.readValue(paymentJson, Payment.class);
+    }
+}
@@ -0,0 +1,168 @@
+package com.dynatrace.orders;
+
+import com.dynatrace.orders.exception.BadRequestException;
+import com.dynatrace.orders.model.Order;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Loading 10k orders through the Order setters, as Jackson does for every request body and the batch endpoint.
+// The "legacy" variants run a copy of the previous entity code (String.matches per call, regex string per
+// instance, a new Date per setter). Allocation rates come from the gc profiler (gc.alloc.rate.norm is bytes per op):
+// ./gradlew jmh -PjmhIncludes=OrderValidation
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class OrderValidationBenchmark {
+    private static final int ORDERS = 10_000;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private String[] emails;
+    private String[] isbns;
+    private byte[] json;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        emails = new String[ORDERS];
+        isbns = new String[ORDERS];
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < ORDERS; i++) {
+            emails[i] = "client" + i + "@example.com";
+            isbns[i] = String.format("978%010d", i);
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append("{\"email\":\"").append(emails[i]).append("\",\"isbn\":\"").append(isbns[i])
+                    .append("\",\"quantity\":1,\"price\":9.99,\"completed\":false}");
+        }
+        json = builder.append(']').toString().getBytes();
+    }
+
+    @Benchmark
+    public List<Order> bindJson() throws IOException {
+        return objectMapper.readValue(json, new TypeReference<List<Order>>() {});
+    }
+
+    @Benchmark
+    public List<LegacyOrder> bindJsonLegacy() throws IOException {
+        return objectMapper.readValue(json, new TypeReference<List<LegacyOrder>>() {});
+    }
+
+    @Benchmark
+    public void construct(Blackhole blackhole) {
+        for (int i = 0; i < ORDERS; i++) {
+            blackhole.consume(new Order(i, emails[i], isbns[i], 1, 9.99, false));
+        }
+    }
+
+    @Benchmark
+    public void constructLegacy(Blackhole blackhole) {
+        for (int i = 0; i < ORDERS; i++) {
+            blackhole.consume(new LegacyOrder(i, emails[i], isbns[i], 1, 9.99, false));
+        }
+    }
+
+    // the entity as it was before OrderValidation, kept here only as the baseline
+    public static class LegacyOrder {
+        private final String emailRegExp = "^(?=.{1,64}@)[A-Za-z0-9_-]+(\\.[A-Za-z0-9_-]+)*@[^-][A-Za-z0-9-]+(\\.[A-Za-z0-9-]+)*(\\.[A-Za-z]{2,})$";
+        private long id;
+        private String email;
+        private String isbn;
+        private int quantity;
+        private double price;
+        private boolean completed;
+        private Date updatedAt;
+        private Date createdAt;
+
+        public LegacyOrder() {
+            this.updatedAt = this.createdAt = new Date();
+        }
+
+        public LegacyOrder(long id, String email, String isbn, int quantity, double price, boolean completed) {
+            this.id = id;
+            this.setEmail(email);
+            this.setIsbn(isbn);
+            this.setQuantity(quantity);
+            this.setPrice(price);
+            this.completed = completed;
+            this.updatedAt = this.createdAt = new Date();
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public void setId(long id) {
+            this.id = id;
+            this.updatedAt = new Date();
+        }
+
+        public String getEmail() {
+            return email;
+        }
+
+        public void setEmail(String email) {
+            if (!email.matches(this.emailRegExp)) {
+                throw new BadRequestException("Invalid email address");
+            }
+            this.email = email;
+            this.updatedAt = new Date();
+        }
+
+        public String getIsbn() {
+            return isbn;
+        }
+
+        public void setIsbn(String isbn) {
+            if (isbn.length() != 13 || !isbn.matches("^\\d{13}$")) {
+                throw new BadRequestException("ISBN must be a 13-digits value");
+            }
+            this.isbn = isbn;
+            this.updatedAt = new Date();
+        }
+
+        public int getQuantity() {
+            return quantity;
+        }
+
+        public void setQuantity(int quantity) {
+            this.quantity = quantity;
+            this.updatedAt = new Date();
+        }
+
+        public double getPrice() {
+            return price;
+        }
+
+        public void setPrice(double price) {
+            this.price = price;
+            this.updatedAt = new Date();
+        }
+
+        public boolean isCompleted() {
+            return completed;
+        }
+
+        public void setCompleted(boolean completed) {
+            this.completed = completed;
+            this.updatedAt = new Date();
+        }
+
+        public Date getUpdatedAt() {
+            return updatedAt;
+        }
+
+        public Date getCreatedAt() {
+            return createdAt;
+        }
+    }
+}
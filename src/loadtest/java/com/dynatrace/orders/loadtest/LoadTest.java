@@ -0,0 +1,185 @@
+package com.dynatrace.orders.loadtest;
+
+import com.dynatrace.orders.OrdersApplication;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// End-to-end load harness: starts the service on a random port against the local Postgres (DT_PG_* variables)
+// and the in-process StubServices, then drives a create/submit/cancel mix at a fixed arrival rate (open model:
+// requests are sent on schedule whether or not earlier ones have finished, and latency is measured from the
+// scheduled send time, so a stalled service shows up in the percentiles instead of slowing the load down).
+//
+// ./gradlew loadTest -Pload.rate=200 -Pload.duration-sec=60 -Pload.mix=create:50,submit:40,cancel:10
+//                    -Pload.stub.latency-ms=20 -Pload.stub.payment.error-rate=0.01
+// Arguments after the load.* properties (-PappArgs) are passed to the service, e.g. --http.client.mode=reactive
+public class LoadTest {
+    private final double rate = Double.parseDouble(System.getProperty("load.rate", "100"));
+    private final long warmupSec = Long.parseLong(System.getProperty("load.warmup-sec", "10"));
+    private final long durationSec = Long.parseLong(System.getProperty("load.duration-sec", "60"));
+    private final int clients = Integer.parseInt(System.getProperty("load.clients", "1000"));
+    private final int books = Integer.parseInt(System.getProperty("load.books", "100"));
+    private final long timeoutMs = Long.parseLong(System.getProperty("load.timeout-ms", "10000"));
+    private final Map<String, Operation> operations = new LinkedHashMap<>();
+    private final List<Operation> mix = new ArrayList<>();
+    private final AtomicBoolean measuring = new AtomicBoolean();
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+    private String baseUrl;
+
+    public static void main(String[] args) throws Exception {
+        new LoadTest().run(args);
+    }
+
+    private void run(String[] appArgs) throws Exception {
+        for (String weighted : System.getProperty("load.mix", "create:50,submit:40,cancel:10").split(",")) {
+            String[] parts = weighted.trim().split(":");
+            Operation operation = operations.computeIfAbsent(parts[0], Operation::new);
+            for (int i = 0; i < Integer.parseInt(parts[1]); i++) {
+                mix.add(operation);
+            }
+        }
+
+        try (StubServices stubs = new StubServices()) {
+            List<String> args = new ArrayList<>(List.of(
+                    "--server.port=0",
+                    "--http.service.clients=" + stubs.url("clients"),
+                    "--http.service.books=" + stubs.url("books"),
+                    "--http.service.storage=" + stubs.url("storage"),
+                    "--http.service.payment=" + stubs.url("payment")));
+            args.addAll(List.of(appArgs));
+            ConfigurableApplicationContext context = SpringApplication.run(OrdersApplication.class, args.toArray(new String[0]));
+            try {
+                baseUrl = "http://127.0.0.1:" + ((WebServerApplicationContext) context).getWebServer().getPort() + "/api/v1/orders";
+                System.out.printf("Load: %.1f req/s, %d s warm-up, %d s measured, mix %s%n", rate, warmupSec, durationSec, System.getProperty("load.mix", "create:50,submit:40,cancel:10"));
+                drive(TimeUnit.SECONDS.toNanos(warmupSec));
+                operations.values().forEach(Operation::reset);
+                measuring.set(true);
+                long measuredNanos = drive(TimeUnit.SECONDS.toNanos(durationSec));
+                measuring.set(false);
+                report(measuredNanos);
+            } finally {
+                context.close();
+            }
+        }
+    }
+
+    // sends requests at the configured rate for the given time, returns the time it took
+    private long drive(long durationNanos) {
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        long start = System.nanoTime();
+        long end = start + durationNanos;
+        for (long scheduled = start; scheduled < end; scheduled += intervalNanos) {
+            long wait = scheduled - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            send(mix.get(ThreadLocalRandom.current().nextInt(mix.size())), scheduled);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private void send(Operation operation, long scheduled) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String email = "load" + random.nextInt(clients) + "@example.com";
+        String isbn = String.format("978%010d", random.nextInt(books));
+        String path = switch (operation.name) {
+            case "submit" -> "/submit";
+            case "cancel" -> "/cancel";
+            default -> "";
+        };
+        String body = "{\"email\":\"" + email + "\",\"isbn\":\"" + isbn + "\",\"quantity\":1,\"price\":10.0,\"completed\":false}";
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .timeout(Duration.ofMillis(timeoutMs))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        boolean measured = measuring.get();
+        httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .whenComplete((response, ex) -> {
+                    if (measured) {
+                        operation.record(System.nanoTime() - scheduled, null == ex ? response.statusCode() : -1);
+                    }
+                });
+    }
+
+    private void report(long measuredNanos) throws InterruptedException {
+        // let the requests still in flight finish
+        Thread.sleep(timeoutMs);
+        double seconds = measuredNanos / 1e9;
+        System.out.printf("%n%-8s %9s %9s %7s %7s %7s %10s %9s %9s %9s %9s%n",
+                "op", "sent", "2xx", "4xx", "5xx", "error", "2xx/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+        Histogram all = new Histogram(3);
+        for (Operation operation : operations.values()) {
+            Histogram histogram = operation.latency.getIntervalHistogram();
+            all.add(histogram);
+            print(operation.name, histogram, operation.ok.sum(), operation.clientErrors.sum(), operation.serverErrors.sum(), operation.failures.sum(), seconds);
+        }
+        long ok = operations.values().stream().mapToLong(operation -> operation.ok.sum()).sum();
+        long clientErrors = operations.values().stream().mapToLong(operation -> operation.clientErrors.sum()).sum();
+        long serverErrors = operations.values().stream().mapToLong(operation -> operation.serverErrors.sum()).sum();
+        long failures = operations.values().stream().mapToLong(operation -> operation.failures.sum()).sum();
+        print("total", all, ok, clientErrors, serverErrors, failures, seconds);
+    }
+
+    private static void print(String name, Histogram histogram, long ok, long clientErrors, long serverErrors, long failures, double seconds) {
+        System.out.printf("%-8s %9d %9d %7d %7d %7d %10.1f %9.2f %9.2f %9.2f %9.2f%n",
+                name, ok + clientErrors + serverErrors + failures, ok, clientErrors, serverErrors, failures, ok / seconds,
+                histogram.getValueAtPercentile(50) / 1000.0, histogram.getValueAtPercentile(99) / 1000.0,
+                histogram.getValueAtPercentile(99.9) / 1000.0, histogram.getMaxValue() / 1000.0);
+    }
+
+    private static class Operation {
+        private final String name;
+        // microseconds
+        private final Recorder latency = new Recorder(3);
+        private final LongAdder ok = new LongAdder();
+        private final LongAdder clientErrors = new LongAdder();
+        private final LongAdder serverErrors = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+
+        Operation(String name) {
+            this.name = name;
+        }
+
+        void record(long nanos, int status) {
+            latency.recordValue(TimeUnit.NANOSECONDS.toMicros(nanos));
+            if (status < 0) {
+                failures.increment();
+            } else if (status >= 500) {
+                serverErrors.increment();
+            } else if (status >= 400) {
+                clientErrors.increment();
+            } else {
+                ok.increment();
+            }
+        }
+
+        void reset() {
+            latency.reset();
+            ok.reset();
+            clientErrors.reset();
+            serverErrors.reset();
+            failures.reset();
+        }
+    }
+}
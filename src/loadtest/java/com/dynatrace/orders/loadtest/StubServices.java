@@ -0,0 +1,118 @@
+package com.dynatrace.orders.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// In-process stand-ins for the clients, books, storage and payment services on one HTTP server.
+// Every service has its own latency, error-rate and payload-size profile, read from system properties:
+// load.stub.<service>.<setting>, falling back to load.stub.<setting> (latency-ms, jitter-ms, error-rate, payload-bytes).
+class StubServices implements AutoCloseable {
+    static final String[] SERVICES = {"clients", "books", "storage", "payment"};
+
+    private final HttpServer server;
+    private final ExecutorService handlers = Executors.newFixedThreadPool(8);
+    // responses are delayed on a timer instead of a sleeping thread, so the stubs never limit the load
+    private final ScheduledExecutorService delays = Executors.newScheduledThreadPool(4);
+
+    StubServices() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 8192);
+        for (String service : SERVICES) {
+            Profile profile = Profile.of(service);
+            server.createContext("/api/v1/" + service, exchange -> handle(service, profile, exchange));
+        }
+        server.setExecutor(handlers);
+        server.start();
+    }
+
+    String url(String service) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/api/v1/" + service;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        delays.shutdownNow();
+        handlers.shutdownNow();
+    }
+
+    private void handle(String service, Profile profile, HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long delayMs = profile.latencyMs() + (profile.jitterMs() > 0 ? random.nextLong(profile.jitterMs() + 1) : 0);
+        boolean fail = random.nextDouble() < profile.errorRate();
+        delays.schedule(() -> respond(exchange, fail ? 500 : 200,
+                fail ? "{\"message\":\"stub failure\"}" : body(service, exchange.getRequestURI(), profile.payloadBytes())),
+                delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void respond(HttpExchange exchange, int status, String body) {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        try (OutputStream out = exchange.getResponseBody()) {
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, bytes.length);
+            out.write(bytes);
+        } catch (IOException ignored) {
+            // the service gave up on the call
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static String body(String service, URI uri, int payloadBytes) {
+        String path = uri.getPath();
+        String query = null == uri.getQuery() ? "" : uri.getQuery();
+        // unknown properties are ignored by the service, the padding only makes the payload bigger
+        String padding = payloadBytes > 0 ? ",\"padding\":\"" + "x".repeat(payloadBytes) + "\"" : "";
+        return switch (service) {
+            case "clients" -> path.endsWith("/find")
+                    ? "{\"id\":1,\"firstName\":\"Load\",\"lastName\":\"Test\",\"email\":\"" + param(query, "email") + "\"" + padding + "}"
+                    : "[]";
+            case "books" -> path.endsWith("/find")
+                    ? "{\"id\":1,\"isbn\":\"" + param(query, "isbn") + "\",\"title\":\"Load Test\",\"language\":\"en\",\"published\":true,\"author\":\"Stub\",\"price\":10.0" + padding + "}"
+                    : "[]";
+            case "storage" -> path.endsWith("/findByISBN") || path.endsWith("-book")
+                    // sell-book and ingest-book answer with plenty left in storage
+                    ? "{\"id\":1,\"isbn\":\"" + param(query, "isbn") + "\",\"quantity\":1000000" + padding + "}"
+                    : "[]";
+            default -> "{\"orderId\":1,\"amount\":10.0,\"email\":\"\",\"succeeded\":true,\"message\":\"paid\"" + padding + "}";
+        };
+    }
+
+    private static String param(String query, String name) {
+        for (String pair : query.split("&")) {
+            if (pair.startsWith(name + "=")) {
+                return URLDecoder.decode(pair.substring(name.length() + 1), StandardCharsets.UTF_8);
+            }
+        }
+        return "";
+    }
+
+    record Profile(long latencyMs, long jitterMs, double errorRate, int payloadBytes) {
+        static Profile of(String service) {
+            return new Profile(
+                    Long.parseLong(setting(service, "latency-ms", "20")),
+                    Long.parseLong(setting(service, "jitter-ms", "5")),
+                    Double.parseDouble(setting(service, "error-rate", "0")),
+                    Integer.parseInt(setting(service, "payload-bytes", "0")));
+        }
+
+        private static String setting(String service, String name, String defaultValue) {
+            return System.getProperty("load.stub." + service + "." + name, System.getProperty("load.stub." + name, defaultValue));
+        }
+    }
+}
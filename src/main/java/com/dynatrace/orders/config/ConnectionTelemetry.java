@@ -0,0 +1,76 @@
+package com.dynatrace.orders.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Puts every Hikari pool behind a TimedDataSource, which times taking a connection (orders.db.connection.acquire)
+// and holding it until it goes back to the pool (orders.db.connection.hold), both tagged with the pool and the
+// endpoint of the request; DbTimeInterceptor tells which endpoint that is and records the request's total hold time.
+// Active, idle and pending connections of the pools are Hikari's own hikaricp.connections.* gauges; the pools are
+// still closed on shutdown, TimedDataSource closes the pool it wraps
+@Component
+public class ConnectionTelemetry implements BeanPostProcessor {
+    static final String NO_ENDPOINT = "none";
+    private static final ThreadLocal<RequestDbTime> CURRENT = new ThreadLocal<>();
+    // looked up on first use, a post processor must not pull the registry in before its own customizers ran
+    private final ObjectProvider<MeterRegistry> meterRegistry;
+
+    public ConnectionTelemetry(ObjectProvider<MeterRegistry> meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof HikariDataSource hikari) {
+            String pool = null == hikari.getPoolName() ? beanName : hikari.getPoolName();
+            return new TimedDataSource(hikari, pool, meterRegistry);
+        }
+        return bean;
+    }
+
+    static RequestDbTime current() {
+        return CURRENT.get();
+    }
+
+    static void attach(RequestDbTime request) {
+        CURRENT.set(request);
+    }
+
+    static void detach() {
+        CURRENT.remove();
+    }
+
+    // what connections taken for one request added up to; connections of a streamed response close on another thread
+    static class RequestDbTime {
+        private final String endpoint;
+        private final AtomicLong holdNanos = new AtomicLong();
+        private final AtomicInteger connections = new AtomicInteger();
+
+        RequestDbTime(String endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        String getEndpoint() {
+            return endpoint;
+        }
+
+        long getHoldNanos() {
+            return holdNanos.get();
+        }
+
+        int getConnections() {
+            return connections.get();
+        }
+
+        void held(long nanos) {
+            holdNanos.addAndGet(nanos);
+            connections.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.dynatrace.orders.config;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.concurrent.TimeUnit;
+
+// names the endpoint the connections of a request are taken for, and records how long the request held
+// connections in total (orders.db.request.hold) and how many it took (orders.db.request.connections)
+@Component
+public class DbTimeInterceptor implements AsyncHandlerInterceptor {
+    private static final String REQUEST_DB_TIME = DbTimeInterceptor.class.getName() + ".requestDbTime";
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        // the dispatch that writes an async result keeps adding to the request it belongs to
+        if (request.getAttribute(REQUEST_DB_TIME) instanceof ConnectionTelemetry.RequestDbTime dbTime) {
+            ConnectionTelemetry.attach(dbTime);
+            return true;
+        }
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        String endpoint = request.getMethod() + " " + (null == pattern ? "UNKNOWN" : pattern);
+        ConnectionTelemetry.RequestDbTime dbTime = new ConnectionTelemetry.RequestDbTime(endpoint);
+        ConnectionTelemetry.attach(dbTime);
+        request.setAttribute(REQUEST_DB_TIME, dbTime);
+        return true;
+    }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        ConnectionTelemetry.detach();
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        ConnectionTelemetry.detach();
+        if (!(request.getAttribute(REQUEST_DB_TIME) instanceof ConnectionTelemetry.RequestDbTime dbTime)) {
+            return;
+        }
+        Timer.builder("orders.db.request.hold")
+                .description("Time a request held database connections, all its connections together")
+                .tag("endpoint", dbTime.getEndpoint())
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(dbTime.getHoldNanos(), TimeUnit.NANOSECONDS);
+        DistributionSummary.builder("orders.db.request.connections")
+                .description("Connections a request took from the pools")
+                .tag("endpoint", dbTime.getEndpoint())
+                .register(meterRegistry)
+                .record(dbTime.getConnections());
+    }
+}
@@ -0,0 +1,49 @@
+package com.dynatrace.orders.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Map;
+
+// read timeout of each downstream service (clients, books, storage, payment), keyed by service name and host
+@Component
+public class DownstreamTimeouts {
+    private final Map<String, Duration> timeouts;
+    private final Map<String, String> hosts;
+
+    public DownstreamTimeouts(@Value("${http.service.clients}") String clientsURL,
+                              @Value("${http.service.books}") String booksURL,
+                              @Value("${http.service.storage}") String storageURL,
+                              @Value("${http.service.payment}") String paymentURL,
+                              @Value("${http.client.clients.read-timeout-ms:5000}") long clientsTimeoutMs,
+                              @Value("${http.client.books.read-timeout-ms:5000}") long booksTimeoutMs,
+                              @Value("${http.client.storage.read-timeout-ms:5000}") long storageTimeoutMs,
+                              @Value("${http.client.payment.read-timeout-ms:5000}") long paymentTimeoutMs) {
+        this.timeouts = Map.of(
+                "clients", Duration.ofMillis(clientsTimeoutMs),
+                "books", Duration.ofMillis(booksTimeoutMs),
+                "storage", Duration.ofMillis(storageTimeoutMs),
+                "payment", Duration.ofMillis(paymentTimeoutMs));
+        this.hosts = Map.of(
+                "clients", URI.create(clientsURL).getAuthority(),
+                "books", URI.create(booksURL).getAuthority(),
+                "storage", URI.create(storageURL).getAuthority(),
+                "payment", URI.create(paymentURL).getAuthority());
+    }
+
+    public Duration forService(String service) {
+        return timeouts.get(service);
+    }
+
+    // read timeout of the service behind the URI, null when it is none of ours
+    public Duration forUri(URI uri) {
+        for (Map.Entry<String, String> host : hosts.entrySet()) {
+            if (host.getValue().equals(uri.getAuthority())) {
+                return timeouts.get(host.getKey());
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,49 @@
+package com.dynatrace.orders.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+@Configuration
+public class ExecutorConfig {
+    @Value("${orders.verify.threads:64}")
+    private int verifyThreads;
+    @Value("${orders.verify.queue-size:256}")
+    private int verifyQueueSize;
+    @Value("${orders.payment.workers:8}")
+    private int paymentWorkers;
+    @Value("${orders.threads.virtual:false}")
+    private boolean virtualThreads;
+
+    // bounded pool for the downstream lookups of an order, when it is full the request thread does the work itself
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService verificationExecutor(MeterRegistry meterRegistry) {
+        if (virtualThreads) {
+            // the HTTP connection pool is what bounds the downstream concurrency then
+            return ExecutorServiceMetrics.monitor(meterRegistry, VirtualThreads.newExecutor(), "orders.verify");
+        }
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(verifyThreads, verifyThreads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(verifyQueueSize), new CustomizableThreadFactory("verify-"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return ExecutorServiceMetrics.monitor(meterRegistry, executor, "orders.verify");
+    }
+
+    // workers of the payment outbox; PaymentWorker never claims more rows than there are idle threads
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService paymentExecutor(MeterRegistry meterRegistry) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(paymentWorkers, paymentWorkers, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), new CustomizableThreadFactory("payment-"));
+        executor.allowCoreThreadTimeOut(true);
+        return ExecutorServiceMetrics.monitor(meterRegistry, executor, "orders.payment");
+    }
+}
@@ -0,0 +1,117 @@
+package com.dynatrace.orders.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+// one HTTP client shared by all downstream repositories (clients, books, storage, payment)
+@Configuration
+public class HttpClientConfig {
+    @Value("${http.client.max-total:200}")
+    private int maxTotal;
+    @Value("${http.client.max-per-route:50}")
+    private int maxPerRoute;
+    @Value("${http.client.connect-timeout-ms:2000}")
+    private int connectTimeoutMs;
+    @Value("${http.client.read-timeout-ms:5000}")
+    private int readTimeoutMs;
+    @Value("${http.client.pool-acquire-timeout-ms:1000}")
+    private int poolAcquireTimeoutMs;
+    @Value("${http.client.keep-alive-ms:30000}")
+    private long keepAliveMs;
+    @Value("${http.client.http2:false}")
+    private boolean http2;
+
+    // the read timeout is the one of the service called (http.client.<service>.read-timeout-ms)
+    @Bean
+    public ClientHttpRequestFactory downstreamRequestFactory(MeterRegistry meterRegistry, DownstreamTimeouts downstreamTimeouts) {
+        if (http2) {
+            // the JDK client multiplexes requests over one connection per host, there is no pool to size
+            HttpClient httpClient = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_2)
+                    .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                    .build();
+            return new JdkClientHttpRequestFactory(httpClient, uri -> {
+                Duration timeout = downstreamTimeouts.forUri(uri);
+                return null == timeout ? Duration.ofMillis(readTimeoutMs) : timeout;
+            });
+        }
+        RequestConfig requestConfig = requestConfig();
+        return new HttpComponentsClientHttpRequestFactory(pooledHttpClient(meterRegistry, requestConfig)) {
+            @Override
+            protected HttpContext createHttpContext(HttpMethod httpMethod, URI uri) {
+                Duration timeout = downstreamTimeouts.forUri(uri);
+                if (null == timeout) {
+                    return null;
+                }
+                HttpClientContext context = HttpClientContext.create();
+                context.setRequestConfig(RequestConfig.copy(requestConfig).setSocketTimeout((int) timeout.toMillis()).build());
+                return context;
+            }
+        };
+    }
+
+    @Bean
+    public RestTemplate restTemplate(RestTemplateBuilder builder, ClientHttpRequestFactory downstreamRequestFactory) {
+        return builder.requestFactory(() -> downstreamRequestFactory).build();
+    }
+
+    private RequestConfig requestConfig() {
+        return RequestConfig.custom()
+                .setConnectTimeout(connectTimeoutMs)
+                .setSocketTimeout(readTimeoutMs)
+                .setConnectionRequestTimeout(poolAcquireTimeoutMs)
+                .build();
+    }
+
+    private CloseableHttpClient pooledHttpClient(MeterRegistry meterRegistry, RequestConfig requestConfig) {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxTotal);
+        connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+        connectionManager.setValidateAfterInactivity(2000);
+
+        Gauge.builder("http.client.pool.leased", connectionManager, cm -> cm.getTotalStats().getLeased())
+                .description("Connections currently in use")
+                .register(meterRegistry);
+        Gauge.builder("http.client.pool.pending", connectionManager, cm -> cm.getTotalStats().getPending())
+                .description("Requests waiting for a connection")
+                .register(meterRegistry);
+        Gauge.builder("http.client.pool.idle", connectionManager, cm -> cm.getTotalStats().getAvailable())
+                .description("Idle keep-alive connections")
+                .register(meterRegistry);
+        Gauge.builder("http.client.pool.max", connectionManager, cm -> cm.getTotalStats().getMax())
+                .description("Maximum number of connections")
+                .register(meterRegistry);
+
+        return HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setKeepAliveStrategy((response, context) -> {
+                    // honour the server's Keep-Alive header, but never keep a connection longer than configured
+                    long keepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                    return keepAlive > 0 ? Math.min(keepAlive, keepAliveMs) : keepAliveMs;
+                })
+                .evictExpiredConnections()
+                .evictIdleConnections(keepAliveMs, TimeUnit.MILLISECONDS)
+                .build();
+    }
+}
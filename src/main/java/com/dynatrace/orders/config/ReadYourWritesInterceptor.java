@@ -0,0 +1,44 @@
+package com.dynatrace.orders.config;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+// tells ReplicaRouting who is calling and whether the request writes; a caller is the X-Caller-Id header,
+// or the remote address for clients that do not send one
+@Component
+public class ReadYourWritesInterceptor implements AsyncHandlerInterceptor {
+    static final String CALLER_HEADER = "X-Caller-Id";
+    @Autowired
+    private ReplicaRouting replicaRouting;
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        replicaRouting.beginRequest(caller(request), isWrite(request));
+        return true;
+    }
+
+    // streaming and SSE responses finish on another thread, this one goes back to the pool
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        replicaRouting.detach();
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        replicaRouting.endRequest(caller(request), isWrite(request));
+    }
+
+    private static String caller(HttpServletRequest request) {
+        String caller = request.getHeader(CALLER_HEADER);
+        return null == caller || caller.isBlank() ? request.getRemoteAddr() : caller;
+    }
+
+    private static boolean isWrite(HttpServletRequest request) {
+        String method = request.getMethod();
+        return !"GET".equals(method) && !"HEAD".equals(method) && !"OPTIONS".equals(method);
+    }
+}
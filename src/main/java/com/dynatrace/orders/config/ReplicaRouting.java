@@ -0,0 +1,69 @@
+package com.dynatrace.orders.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.function.Supplier;
+
+// Which queries may go to the read replica: those run in read(), unless the caller of the request wrote within
+// orders.replica.read-your-writes-ms, then everything stays on the primary so the caller sees its own writes.
+// ReplicaRoutingDataSource asks isReplicaRead(); without orders.replica.enabled nothing reads it
+@Component
+public class ReplicaRouting {
+    private static final ThreadLocal<Boolean> REPLICA_READ = new ThreadLocal<>();
+    private static final ThreadLocal<Boolean> PINNED_TO_PRIMARY = new ThreadLocal<>();
+    @Value("${orders.replica.read-your-writes-ms:2000}")
+    private long readYourWritesMs;
+    @Value("${orders.replica.max-callers:100000}")
+    private long maxCallers;
+    // callers that wrote recently, they expire with the read-your-writes window
+    private Cache<String, Boolean> recentWriters;
+
+    @PostConstruct
+    public void init() {
+        recentWriters = Caffeine.newBuilder()
+                .maximumSize(maxCallers)
+                .expireAfterWrite(Duration.ofMillis(readYourWritesMs))
+                .build();
+    }
+
+    public static boolean isReplicaRead() {
+        return Boolean.TRUE.equals(REPLICA_READ.get()) && !Boolean.TRUE.equals(PINNED_TO_PRIMARY.get());
+    }
+
+    public <T> T read(Supplier<T> query) {
+        Boolean outer = REPLICA_READ.get();
+        REPLICA_READ.set(Boolean.TRUE);
+        try {
+            return query.get();
+        } finally {
+            if (null == outer) {
+                REPLICA_READ.remove();
+            } else {
+                REPLICA_READ.set(outer);
+            }
+        }
+    }
+
+    void beginRequest(String caller, boolean write) {
+        if (write || null != recentWriters.getIfPresent(caller)) {
+            PINNED_TO_PRIMARY.set(Boolean.TRUE);
+        }
+    }
+
+    void detach() {
+        PINNED_TO_PRIMARY.remove();
+    }
+
+    // the window starts when the write is done, i.e. committed
+    void endRequest(String caller, boolean write) {
+        PINNED_TO_PRIMARY.remove();
+        if (write) {
+            recentWriters.put(caller, Boolean.TRUE);
+        }
+    }
+}
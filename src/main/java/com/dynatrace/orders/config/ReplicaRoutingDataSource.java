@@ -0,0 +1,103 @@
+package com.dynatrace.orders.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+
+// Sends the queries of ReplicaRouting.read() to the replica and everything else to the primary. While the replica
+// is down or replays more than max-lag behind the primary, reads go to the primary as well
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource {
+    private static final String PRIMARY = "primary";
+    private static final String REPLICA = "replica";
+    private final DataSource primary;
+    private final DataSource replica;
+    private final JdbcTemplate replicaTemplate;
+    private final long maxLagMs;
+    private final Counter fallbacks;
+    private volatile boolean replicaUsable = true;
+    private volatile double lagMs;
+    private Logger logger = LoggerFactory.getLogger(ReplicaRoutingDataSource.class);
+
+    public ReplicaRoutingDataSource(DataSource primary, DataSource replica, MeterRegistry meterRegistry, long maxLagMs) {
+        this.primary = primary;
+        this.replica = replica;
+        this.replicaTemplate = new JdbcTemplate(replica);
+        this.maxLagMs = maxLagMs;
+        setTargetDataSources(Map.of(PRIMARY, primary, REPLICA, replica));
+        setDefaultTargetDataSource(primary);
+        this.fallbacks = Counter.builder("orders.replica.fallbacks")
+                .description("Reads sent to the primary because the replica was down or lagging")
+                .register(meterRegistry);
+        Gauge.builder("orders.replica.lag", this, routing -> routing.lagMs)
+                .description("Replay lag of the read replica")
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+        Gauge.builder("orders.replica.usable", this, routing -> routing.replicaUsable ? 1.0 : 0.0)
+                .description("1 while reads go to the replica")
+                .register(meterRegistry);
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        if (!ReplicaRouting.isReplicaRead()) {
+            return PRIMARY;
+        }
+        if (!replicaUsable) {
+            fallbacks.increment();
+            return PRIMARY;
+        }
+        return REPLICA;
+    }
+
+    // a replica that refuses connections is taken out until the next check finds it back
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (!REPLICA.equals(determineCurrentLookupKey())) {
+            return primary.getConnection();
+        }
+        try {
+            return replica.getConnection();
+        } catch (SQLException ex) {
+            logger.warn("Read replica unavailable, reading from the primary: {}", ex.getMessage());
+            replicaUsable = false;
+            fallbacks.increment();
+            return primary.getConnection();
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return getConnection();
+    }
+
+    // the lag is 0 when the replica replayed all it received; a plain second database, not in recovery, has none
+    @Scheduled(fixedDelayString = "${orders.replica.check-interval-ms:1000}")
+    public void checkReplica() {
+        try {
+            Double lag = replicaTemplate.queryForObject("SELECT CASE WHEN NOT pg_is_in_recovery() " +
+                    "OR pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 " +
+                    "ELSE EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000 END", Double.class);
+            lagMs = null == lag ? 0.0 : lag;
+            boolean usable = lagMs <= maxLagMs;
+            if (usable != replicaUsable) {
+                logger.info("Read replica {}, lag {} ms", usable ? "back in use" : "lagging, reading from the primary", Math.round(lagMs));
+            }
+            replicaUsable = usable;
+        } catch (RuntimeException ex) {
+            if (replicaUsable) {
+                logger.warn("Read replica check failed, reading from the primary: {}", ex.getMessage());
+            }
+            replicaUsable = false;
+        }
+    }
+}
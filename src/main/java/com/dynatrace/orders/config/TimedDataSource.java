@@ -0,0 +1,84 @@
+package com.dynatrace.orders.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// a pool with its connections timed, see ConnectionTelemetry. It stands in for the pool bean, so it also closes
+// the pool when the context shuts down: the destroy method is inferred from this class, not from the pool's
+public class TimedDataSource extends DelegatingDataSource implements Closeable {
+    private final String pool;
+    private final ObjectProvider<MeterRegistry> meterRegistry;
+
+    public TimedDataSource(DataSource pool, String poolName, ObjectProvider<MeterRegistry> meterRegistry) {
+        super(pool);
+        this.pool = poolName;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        Connection connection = obtainTargetDataSource().getConnection();
+        return timed(connection, start);
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        long start = System.nanoTime();
+        Connection connection = obtainTargetDataSource().getConnection(username, password);
+        return timed(connection, start);
+    }
+
+    @Override
+    public void close() {
+        if (getTargetDataSource() instanceof HikariDataSource hikari) {
+            hikari.close();
+        }
+    }
+
+    private Connection timed(Connection connection, long start) {
+        ConnectionTelemetry.RequestDbTime request = ConnectionTelemetry.current();
+        String endpoint = null == request ? ConnectionTelemetry.NO_ENDPOINT : request.getEndpoint();
+        long acquired = System.nanoTime();
+        timer("orders.db.connection.acquire", "Time spent waiting for a pooled connection", endpoint)
+                .record(acquired - start, TimeUnit.NANOSECONDS);
+        AtomicBoolean closed = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(TimedDataSource.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    if ("close".equals(method.getName()) && closed.compareAndSet(false, true)) {
+                        long held = System.nanoTime() - acquired;
+                        timer("orders.db.connection.hold", "Time a connection was out of the pool", endpoint)
+                                .record(held, TimeUnit.NANOSECONDS);
+                        if (null != request) {
+                            request.held(held);
+                        }
+                    }
+                    try {
+                        return method.invoke(connection, args);
+                    } catch (InvocationTargetException ex) {
+                        throw ex.getCause();
+                    }
+                });
+    }
+
+    private Timer timer(String name, String description, String endpoint) {
+        return Timer.builder(name)
+                .description(description)
+                .tag("pool", pool)
+                .tag("endpoint", endpoint)
+                .publishPercentileHistogram()
+                .register(meterRegistry.getObject());
+    }
+}
@@ -0,0 +1,22 @@
+package com.dynatrace.orders.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+// orders.threads.virtual=true: Tomcat hands every request to its own virtual thread,
+// so the blocking JPA and RestTemplate calls of an order no longer hold a platform thread
+@Configuration
+@ConditionalOnProperty(name = "orders.threads.virtual", havingValue = "true")
+public class VirtualThreadsConfig {
+    private Logger logger = LoggerFactory.getLogger(VirtualThreadsConfig.class);
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadsProtocolHandlerCustomizer() {
+        logger.info("Handling requests on virtual threads");
+        return protocolHandler -> protocolHandler.setExecutor(VirtualThreads.newExecutor());
+    }
+}
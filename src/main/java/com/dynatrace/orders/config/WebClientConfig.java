@@ -0,0 +1,59 @@
+package com.dynatrace.orders.config;
+
+import io.netty.channel.ChannelOption;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+
+// non-blocking client for the reactive repositories, sized with the same http.client.* settings as the RestTemplate
+@Configuration
+@ConditionalOnProperty(name = "http.client.mode", havingValue = "reactive")
+public class WebClientConfig {
+    @Value("${http.client.max-per-route:50}")
+    private int maxPerRoute;
+    @Value("${http.client.pending-acquire-max:1000}")
+    private int pendingAcquireMax;
+    @Value("${http.client.connect-timeout-ms:2000}")
+    private int connectTimeoutMs;
+    @Value("${http.client.read-timeout-ms:5000}")
+    private int readTimeoutMs;
+    @Value("${http.client.pool-acquire-timeout-ms:1000}")
+    private int poolAcquireTimeoutMs;
+    @Value("${http.client.keep-alive-ms:30000}")
+    private long keepAliveMs;
+    @Value("${http.client.http2:false}")
+    private boolean http2;
+
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider downstreamConnectionProvider() {
+        // reactor netty keeps one pool per remote host, so this is the per-host maximum;
+        // orders beyond it plus pendingAcquireMax are rejected instead of queueing up
+        return ConnectionProvider.builder("downstream")
+                .maxConnections(maxPerRoute)
+                .pendingAcquireMaxCount(pendingAcquireMax)
+                .pendingAcquireTimeout(Duration.ofMillis(poolAcquireTimeoutMs))
+                .maxIdleTime(Duration.ofMillis(keepAliveMs))
+                .evictInBackground(Duration.ofMillis(keepAliveMs))
+                .metrics(true)
+                .build();
+    }
+
+    @Bean
+    public WebClient downstreamWebClient(WebClient.Builder builder, ConnectionProvider downstreamConnectionProvider) {
+        HttpClient httpClient = HttpClient.create(downstreamConnectionProvider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMs)
+                .responseTimeout(Duration.ofMillis(readTimeoutMs));
+        if (http2) {
+            httpClient = httpClient.protocol(HttpProtocol.H2C, HttpProtocol.HTTP11);
+        }
+        return builder.clientConnector(new ReactorClientHttpConnector(httpClient)).build();
+    }
+}
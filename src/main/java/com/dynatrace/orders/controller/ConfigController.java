@@ -1,8 +1,10 @@
 package com.dynatrace.orders.controller;
 
+import com.dynatrace.orders.config.ReplicaRouting;
 import com.dynatrace.orders.exception.ResourceNotFoundException;
 import com.dynatrace.orders.model.Config;
 import com.dynatrace.orders.repository.ConfigRepository;
+import com.dynatrace.orders.service.ConfigCache;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
 
@@ -14,17 +16,21 @@ import java.util.Optional;
 public class ConfigController {
     @Autowired
     private ConfigRepository configRepository;
+    @Autowired
+    private ConfigCache configCache;
+    @Autowired
+    private ReplicaRouting replicaRouting;
 
     // get all settings
     @GetMapping("")
     public List<Config> getAllConfigs() {
-        return configRepository.findAll();
+        return replicaRouting.read(() -> configRepository.findAll());
     }
 
     // get a setting
     @GetMapping("/{id}")
     public Config getConfigById(@PathVariable String id) {
-        Optional<Config> config = configRepository.findById(id);
+        Optional<Config> config = replicaRouting.read(() -> configRepository.findById(id));
         if (config.isEmpty()) {
             throw new ResourceNotFoundException("Config does not exist");
         }
@@ -34,7 +40,9 @@ public class ConfigController {
     // create a setting
     @PostMapping("")
     public Config createConfig(@RequestBody Config config) {
-        return configRepository.save(config);
+        Config saved = configRepository.save(config);
+        configCache.refresh();
+        return saved;
     }
 
     // update a config
@@ -44,12 +52,15 @@ public class ConfigController {
         if (configDb.isEmpty()) {
             throw new ResourceNotFoundException("Config does not exist");
         }
-        return configRepository.save(config);
+        Config saved = configRepository.save(config);
+        configCache.refresh();
+        return saved;
     }
 
     // delete a config
     @DeleteMapping("/{id}")
     public void deleteConfig(@PathVariable String id) {
         configRepository.deleteById(id);
+        configCache.refresh();
     }
 }
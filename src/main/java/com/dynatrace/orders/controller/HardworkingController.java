@@ -2,7 +2,7 @@ package com.dynatrace.orders.controller;
 
 import com.dynatrace.orders.exception.CrashException;
 import com.dynatrace.orders.model.Config;
-import com.dynatrace.orders.repository.ConfigRepository;
+import com.dynatrace.orders.service.ConfigCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -11,26 +11,23 @@ import java.util.Optional;
 import static java.lang.Math.sqrt;
 
 public abstract class HardworkingController {
-    public abstract ConfigRepository getConfigRepository();
+    public abstract ConfigCache getConfigCache();
     private Logger logger = LoggerFactory.getLogger(HardworkingController.class);
 
-    private boolean shouldWorkHard() {
-        Optional<Config> config = getConfigRepository().findById("dt.work.hard");
-        return config.isPresent() && config.get().isTurnedOn() && 10 < getMemPressureMb() && 100 < getCPUPressure();
+    private boolean shouldWorkHard(Optional<Config> config) {
+        return config.isPresent() && config.get().isTurnedOn() && 10 < getMemPressureMb(config) && 100 < getCPUPressure(config);
     }
 
     private boolean shouldSimulateCrash() {
-        Optional<Config> config = getConfigRepository().findById("dt.simulate.crash");
+        Optional<Config> config = getConfigCache().get("dt.simulate.crash");
         return config.isPresent() && config.get().isTurnedOn();
     }
 
-    private long getMemPressureMb() {
-        Optional<Config> config = getConfigRepository().findById("dt.work.hard");
+    private long getMemPressureMb(Optional<Config> config) {
         return config.map(Config::getLoadRAM).orElseGet(() -> 0L);
     }
 
-    private long getCPUPressure() {
-        Optional<Config> config = getConfigRepository().findById("dt.work.hard");
+    private long getCPUPressure(Optional<Config> config) {
         return config.map(Config::getLoadCPU).orElseGet(() -> 0L);
     }
 
@@ -42,16 +39,17 @@ public abstract class HardworkingController {
     }
 
     protected void simulateHardWork() {
-        if (!shouldWorkHard()) {
+        Optional<Config> config = getConfigCache().get("dt.work.hard");
+        if (!shouldWorkHard(config)) {
             return;
         }
-        int arraySize = (int)(getMemPressureMb() * 1024L * 1024L / 8L);
+        int arraySize = (int)(getMemPressureMb(config) * 1024L * 1024L / 8L);
         if (arraySize < 0) {
             arraySize = Integer.MAX_VALUE;
         }
         long[] longs = new long[arraySize];
         int j = 0;
-        long cpuPressure = getCPUPressure();
+        long cpuPressure = getCPUPressure(config);
         for(long i = 0; i < cpuPressure; i++, j++) {
             j++;
             if (j >= arraySize) {
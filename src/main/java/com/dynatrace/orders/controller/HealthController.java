@@ -0,0 +1,80 @@
+package com.dynatrace.orders.controller;
+
+import com.dynatrace.orders.model.Version;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+// probes for the orchestrator; neither touches a table nor calls a downstream service
+@RestController
+@RequestMapping("/api/v1/health")
+public class HealthController {
+    private static final String[] DOWNSTREAM = {"clients", "books", "storage", "payment"};
+    @Autowired
+    private DataSource dataSource;
+    @Autowired
+    private CircuitBreakerRegistry circuitBreakerRegistry;
+    @Value("${service.version}")
+    private String svcVer;
+    @Value("${service.date}")
+    private String svcDate;
+
+    // the process answers
+    @GetMapping("/live")
+    public Version live() {
+        return new Version("orders", svcVer, svcDate, "UP", "");
+    }
+
+    // 503 while the connection pool is closed or has no connection open; open breakers only degrade the answer,
+    // taking every instance out of rotation because a shared downstream is down would not help
+    @GetMapping("/ready")
+    public ResponseEntity<Version> ready() {
+        List<String> problems = new ArrayList<>();
+        boolean poolUp = true;
+        HikariDataSource hikari = primaryPool();
+        if (null != hikari) {
+            HikariPoolMXBean pool = hikari.getHikariPoolMXBean();
+            if (!hikari.isRunning() || null == pool) {
+                poolUp = false;
+                problems.add("pool: closed");
+            } else if (pool.getTotalConnections() == 0) {
+                // the pool keeps minimum-idle connections open, none at all means it cannot reach the database
+                poolUp = false;
+                problems.add("pool: no connections, " + pool.getThreadsAwaitingConnection() + " waiting");
+            }
+        }
+        for (String service : DOWNSTREAM) {
+            CircuitBreaker.State state = circuitBreakerRegistry.circuitBreaker(service).getState();
+            if (state == CircuitBreaker.State.OPEN || state == CircuitBreaker.State.FORCED_OPEN) {
+                problems.add(service + ": " + state);
+            }
+        }
+        String message = String.join(", ", problems);
+        if (!poolUp) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(new Version("orders", svcVer, svcDate, "DOWN", message));
+        }
+        return ResponseEntity.ok(new Version("orders", svcVer, svcDate, problems.isEmpty() ? "UP" : "DEGRADED", message));
+    }
+
+    // with a read replica the Hikari pool of the primary sits behind the routing DataSource
+    private HikariDataSource primaryPool() {
+        try {
+            return dataSource.isWrapperFor(HikariDataSource.class) ? dataSource.unwrap(HikariDataSource.class) : null;
+        } catch (SQLException ex) {
+            return null;
+        }
+    }
+}
@@ -1,21 +1,54 @@
 package com.dynatrace.orders.controller;
 
+import com.dynatrace.orders.config.ReplicaRouting;
 import com.dynatrace.orders.exception.*;
 import com.dynatrace.orders.model.*;
 import com.dynatrace.orders.repository.*;
+import com.dynatrace.orders.service.ConfigCache;
+import com.dynatrace.orders.service.IdempotencyStore;
+import com.dynatrace.orders.service.OrderCounter;
+import com.dynatrace.orders.service.OrderFlowMetrics;
+import com.dynatrace.orders.service.OrderLocks;
+import com.dynatrace.orders.service.PaymentOutbox;
+import com.dynatrace.orders.service.PaymentStatusEvents;
+import com.dynatrace.orders.service.VerificationStage;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
 import org.aspectj.weaver.ast.Or;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.MappingJacksonValue;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
-import java.util.List;
-import java.util.Optional;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 @RestController
 @RequestMapping("/api/v1/orders")
 public class OrderController extends HardworkingController {
+    private static final String NDJSON = "application/x-ndjson";
+    private static final String IDEMPOTENCY_KEY = "Idempotency-Key";
     @Autowired
     private OrderRepository orderRepository;
     @Autowired
@@ -25,22 +58,86 @@ public class OrderController extends HardworkingController {
     @Autowired
     private StorageRepository storageRepository;
     @Autowired
+    private InventoryLedger inventoryLedger;
+    @Autowired
     private PaymentRepository paymentRepository;
     @Autowired
-    private ConfigRepository configRepository;
+    private ConfigCache configCache;
+    @Autowired
+    private VerificationStage verificationStage;
+    @Autowired
+    private OrderFlowMetrics flowMetrics;
+    @Autowired
+    private IdempotencyStore idempotencyStore;
+    @Autowired
+    private PaymentOutbox paymentOutbox;
+    @Autowired
+    private OrderLocks orderLocks;
+    @Autowired
+    private OrderCounter orderCounter;
+    @Autowired
+    private PaymentStatusEvents paymentStatusEvents;
+    @Autowired
+    private ReplicaRouting replicaRouting;
+    @Autowired(required = false)
+    private ReactiveClientRepository reactiveClientRepository;
+    @Autowired(required = false)
+    private ReactiveBookRepository reactiveBookRepository;
+    @Autowired(required = false)
+    private ReactiveStorageRepository reactiveStorageRepository;
+    @Autowired(required = false)
+    private ReactivePaymentRepository reactivePaymentRepository;
+    @Autowired
+    private OrderStreamRepository orderStreamRepository;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Value("${orders.page.default-size:100}")
+    private int defaultPageSize;
+    @Value("${orders.page.max-size:1000}")
+    private int maxPageSize;
+    @Value("${http.client.mode:blocking}")
+    private String httpClientMode;
+    @Value("${orders.verify.timeout-ms:5000}")
+    private long verifyTimeoutMs;
+    @Value("${orders.payment.mode:sync}")
+    private String paymentMode;
     private Logger logger = LoggerFactory.getLogger(OrderController.class);
 
 
-    // get all Orders
+    // get all Orders; fields=isbn,quantity,completed returns only those fields of each order
     @GetMapping("")
-    public List<Order> getAllOrders() {
-        return orderRepository.findAll(Sort.by(Sort.Direction.ASC, "email", "createdAt"));
+    public MappingJacksonValue getAllOrders(@RequestParam(required = false) List<String> fields) {
+        return orders(fields,
+                () -> orderRepository.findAll(Sort.by(Sort.Direction.ASC, "email", "createdAt")),
+                orderRepository::findAllViews);
+    }
+
+    // get a page of Orders, pass nextCursor of the previous page to get the next one
+    @GetMapping("/page")
+    public OrderPage getOrdersPage(@RequestParam(required = false) String cursor, @RequestParam(required = false) Integer limit) {
+        int pageSize = pageSize(limit);
+        List<Order> orders;
+        if (null == cursor) {
+            orders = replicaRouting.read(() -> orderRepository.findFirstPage(pageSize));
+        } else {
+            OrderCursor after = OrderCursor.decode(cursor);
+            orders = replicaRouting.read(() -> orderRepository.findPageAfter(after.getEmail(), after.getCreatedAt(), after.getId(), pageSize));
+        }
+        return page(orders, pageSize);
+    }
+
+    // stream all Orders as newline-delimited JSON
+    @GetMapping(value = "/stream", produces = NDJSON)
+    public ResponseEntity<StreamingResponseBody> streamAllOrders() {
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(NDJSON))
+                .body(out -> writeNdjson(out, orderStreamRepository::streamAll));
     }
 
     // get Order by ID
     @GetMapping("/{id}")
     public Order getOrderById(@PathVariable Long id) {
-        Optional<Order> order = orderRepository.findById(id);
+        Optional<Order> order = replicaRouting.read(() -> orderRepository.findById(id));
         if (order.isEmpty()) {
             ResourceNotFoundException ex = new ResourceNotFoundException("Order not found");
             logger.error(ex.getMessage());
@@ -49,54 +146,241 @@ public class OrderController extends HardworkingController {
         return order.get();
     }
 
-    // get Orders of a user
+    // server-sent events with the order: its current state, and its final one if the payment is still pending
+    @GetMapping(value = "/{id}/payment-status", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter subscribePaymentStatus(@PathVariable Long id) {
+        return paymentStatusEvents.subscribe(getOrderById(id));
+    }
+
+    // get Orders of a user, fields= as for all Orders
     @GetMapping("/findByEmail")
-    public List<Order> getOrdersByEmail(@RequestParam String email) {
-        logger.info("Finding orders for user " + email);
+    public MappingJacksonValue getOrdersByEmail(@RequestParam String email, @RequestParam(required = false) List<String> fields) {
+        logger.info("Finding orders for user {}", email);
         this.verifyClient(email);
-        return orderRepository.findByEmail(email);
+        return orders(fields, () -> orderRepository.findByEmail(email), () -> orderRepository.findViewsByEmail(email));
     }
 
-    // get all users who ordered the book
+    // get a page of Orders of a user
+    @GetMapping("/findByEmail/page")
+    public OrderPage getOrdersByEmailPage(@RequestParam String email, @RequestParam(required = false) String cursor, @RequestParam(required = false) Integer limit) {
+        logger.info("Finding orders page for user {}", email);
+        this.verifyClient(email);
+        int pageSize = pageSize(limit);
+        List<Order> orders;
+        if (null == cursor) {
+            orders = replicaRouting.read(() -> orderRepository.findFirstPageByEmail(email, pageSize));
+        } else {
+            OrderCursor after = OrderCursor.decode(cursor);
+            orders = replicaRouting.read(() -> orderRepository.findPageByEmailAfter(email, after.getCreatedAt(), after.getId(), pageSize));
+        }
+        return page(orders, pageSize);
+    }
+
+    // stream Orders of a user as newline-delimited JSON
+    @GetMapping(value = "/findByEmail/stream", produces = NDJSON)
+    public ResponseEntity<StreamingResponseBody> streamOrdersByEmail(@RequestParam String email) {
+        logger.info("Streaming orders for user {}", email);
+        this.verifyClient(email);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(NDJSON))
+                .body(out -> writeNdjson(out, rowHandler -> orderStreamRepository.streamByEmail(email, rowHandler)));
+    }
+
+    // get all users who ordered the book, fields= as for all Orders
     @GetMapping("/findByISBN")
-    public List<Order> getOrdersByISBN(@RequestParam String isbn) {
-        logger.info("Finding orders for book " + isbn);
-        this.verifyBook(isbn);
-        return orderRepository.findByEmail(isbn);
+    public MappingJacksonValue getOrdersByISBN(@RequestParam String isbn, @RequestParam(required = false) List<String> fields) {
+        logger.info("Finding orders for book {}", isbn);
+        this.verifyBook(isbn, false);
+        return orders(fields, () -> orderRepository.findByIsbn(isbn), () -> orderRepository.findViewsByIsbn(isbn));
     }
 
-    // create an order
+    // create an order; requests for the same client and book run one after another, see OrderLocks
     @PostMapping("")
     public Order createOrder(@RequestBody Order order) {
+        return orderLocks.withLock(order.getEmail(), order.getIsbn(), () -> create(order));
+    }
+
+    private Order create(Order order) {
         simulateHardWork();
         simulateCrash();
-        logger.info("client " + order.getEmail() + " orders book " + order.getIsbn());
-        Book book = verifyBook(order.getIsbn());
-        order.setPrice(book.getPrice()); // new order - taking the fresh price
-        verifyClient(order.getEmail());
-        Storage storage;
+        logger.info("client {} orders book {}", order.getEmail(), order.getIsbn());
+        List<Object> verified;
         try {
-            storage = verifyStorage(order.getIsbn(), order.getQuantity());
+            verified = flowMetrics.record("create", "verify", () -> verificationStage.verify(
+                    () -> {
+                        Book verifiedBook = verifyBook(order.getIsbn(), order.isCompleted()); // buying right away - no cached price
+                        order.setPrice(verifiedBook.getPrice()); // new order - taking the fresh price
+                        return verifiedBook;
+                    },
+                    () -> {
+                        verifyClient(order.getEmail());
+                        return null;
+                    },
+                    () -> verifyStorage(order.getIsbn(), order.getQuantity())));
         } catch (InsufficientResourcesException ex) {
             logger.error(ex.getMessage());
             throw ex;
         }
+        Book book = (Book) verified.get(0);
+        Storage storage = (Storage) verified.get(2);
         if (order.isCompleted()) {
-            buyFromStorage(storage, order, book);
+            buyFromStorage("create", storage, order, book);
         }
         // check if such order already exists under a different id
         Order existingOrder = orderRepository.findByEmailAndIsbn(order.getEmail(), order.getIsbn());
         if (existingOrder != null && order.getId() != existingOrder.getId()) {
             order.setId(existingOrder.getId());
         }
-        logger.debug("Created order for book " + order.getIsbn() + " client " + order.getEmail());
-        return orderRepository.save(order);
+        logger.debug("Created order for book {} client {}", order.getIsbn(), order.getEmail());
+        return flowMetrics.record("create", "persist", () -> orderRepository.save(order));
+    }
+
+    // create many orders at once: every title is verified once, every client once. The orders of a title are then
+    // bought under their OrderLocks locks, like createOrder, and stored together in one batched transaction;
+    // the books of bought orders go back if that transaction fails
+    @PostMapping("/batch")
+    public List<BatchOrderResult> createOrders(@RequestBody List<JsonNode> orders) {
+        simulateHardWork();
+        simulateCrash();
+        logger.info("Creating a batch of {} orders", orders.size());
+        BatchOrderResult[] results = new BatchOrderResult[orders.size()];
+        Order[] parsed = new Order[orders.size()];
+        Map<String, List<Integer>> indexesByIsbn = new LinkedHashMap<>();
+        for (int i = 0; i < orders.size(); i++) {
+            JsonNode node = orders.get(i);
+            try {
+                // bound one by one, so an invalid order fails alone instead of the whole request
+                parsed[i] = objectMapper.treeToValue(node, Order.class);
+                indexesByIsbn.computeIfAbsent(parsed[i].getIsbn(), isbn -> new ArrayList<>()).add(i);
+            } catch (JsonProcessingException | IllegalArgumentException ex) {
+                results[i] = batchFailure(i, node.path("email").asText(null), node.path("isbn").asText(null), ex);
+            }
+        }
+
+        Map<String, RuntimeException> verifiedClients = new HashMap<>();
+        int created = 0;
+        for (Map.Entry<String, List<Integer>> group : indexesByIsbn.entrySet()) {
+            String isbn = group.getKey();
+            List<Integer> indexes = group.getValue();
+            boolean buying = indexes.stream().anyMatch(i -> parsed[i].isCompleted());
+            Book book = null;
+            Storage storage = null;
+            RuntimeException bookError = null;
+            RuntimeException storageError = null;
+            try {
+                book = verifyBook(isbn, buying);
+                storage = verifyStorage(isbn, 0);
+            } catch (RuntimeException ex) {
+                if (null == book) {
+                    bookError = ex;
+                } else {
+                    storageError = ex;
+                }
+            }
+
+            Set<String> emailsInGroup = new HashSet<>();
+            List<Integer> accepted = new ArrayList<>();
+            for (int i : indexes) {
+                Order order = parsed[i];
+                try {
+                    // same precedence as createOrder: book, then client, then storage
+                    if (null != bookError) {
+                        throw bookError;
+                    }
+                    if (!emailsInGroup.add(order.getEmail())) {
+                        throw new BadRequestException("Duplicate order in batch, ISBN " + isbn + " client " + order.getEmail());
+                    }
+                    verifyClientOnce(order.getEmail(), verifiedClients);
+                    if (null != storageError) {
+                        throw storageError;
+                    }
+                    order.setPrice(book.getPrice()); // new order - taking the fresh price
+                    accepted.add(i);
+                } catch (RuntimeException ex) {
+                    results[i] = batchFailure(i, order.getEmail(), isbn, ex);
+                }
+            }
+            if (accepted.isEmpty()) {
+                continue;
+            }
+            List<String> emails = accepted.stream().map(i -> parsed[i].getEmail()).toList();
+            Book groupBook = book;
+            Storage groupStorage = storage;
+            try {
+                created += orderLocks.withLocks(isbn, emails, () -> createInBatch(isbn, accepted, parsed, groupBook, groupStorage, results));
+            } catch (RuntimeException ex) {
+                // only taking the locks throws here, createInBatch reports every order it started on itself
+                accepted.forEach(i -> results[i] = batchFailure(i, parsed[i].getEmail(), isbn, ex));
+            }
+        }
+
+        logger.debug("Created batch of {} orders out of {}", created, orders.size());
+        return Arrays.asList(results);
+    }
+
+    // the orders of one title, their locks held: each is bought on its own, then all are stored in one transaction.
+    // If the transaction fails none of them is stored, and the bought ones get their books returned
+    private int createInBatch(String isbn, List<Integer> indexes, Order[] parsed, Book book, Storage storage, BatchOrderResult[] results) {
+        int available = storage.getQuantity();
+        List<Integer> toStore = new ArrayList<>();
+        Map<Integer, Storage> bought = new HashMap<>();
+        for (int i : indexes) {
+            Order order = parsed[i];
+            try {
+                if (order.getQuantity() > available) {
+                    throw new InsufficientResourcesException("We do not have enough books in storage, ISBN: " + isbn);
+                }
+                if (order.isCompleted()) {
+                    Storage purchase = new Storage(storage.getId(), storage.getIsbn(), storage.getQuantity());
+                    buyFromStorage("batch", purchase, order, book);
+                    bought.put(i, purchase);
+                    available -= order.getQuantity();
+                }
+                toStore.add(i);
+            } catch (RuntimeException ex) {
+                results[i] = batchFailure(i, order.getEmail(), isbn, ex);
+            }
+        }
+        if (toStore.isEmpty()) {
+            return 0;
+        }
+
+        List<Order> orders = toStore.stream().map(i -> parsed[i]).toList();
+        List<Order> saved;
+        try {
+            saved = flowMetrics.record("batch", "persist", () -> orderRepository.saveAllOfIsbn(isbn, orders));
+        } catch (RuntimeException ex) {
+            logger.error("Could not store {} orders of ISBN {}: {}", orders.size(), isbn, ex.getMessage());
+            for (int i : toStore) {
+                Storage purchase = bought.get(i);
+                if (null != purchase) {
+                    logger.error("RETURNING BOOKS TO STORAGE");
+                    try {
+                        compensatePurchase("batch", "persist_failed", purchase);
+                    } catch (RuntimeException compensationEx) {
+                        logger.error("Could not return the books of client {}: {}", parsed[i].getEmail(), compensationEx.getMessage());
+                    }
+                    parsed[i].setCompleted(false);
+                }
+                results[i] = batchFailure(i, parsed[i].getEmail(), isbn, ex);
+            }
+            return 0;
+        }
+        for (int k = 0; k < toStore.size(); k++) {
+            Order order = saved.get(k);
+            results[toStore.get(k)] = new BatchOrderResult(toStore.get(k), order.getEmail(), order.getIsbn(), HttpStatus.OK.value(), "OK", order);
+        }
+        return saved.size();
     }
 
     // update an order
     @PutMapping("/{id}")
     public Order updateOrderById(@PathVariable Long id, @RequestBody Order order) {
-        logger.info("Updating order " + order.getIsbn() + " of client " + order.getEmail());
+        return orderLocks.withLock(order.getEmail(), order.getIsbn(), () -> update(id, order));
+    }
+
+    private Order update(Long id, Order order) {
+        logger.info("Updating order {} of client {}", order.getIsbn(), order.getEmail());
         Optional<Order> orderDb = orderRepository.findById(id);
         if (orderDb.isEmpty()) {
             ResourceNotFoundException ex = new ResourceNotFoundException("Order not found");
@@ -116,54 +400,159 @@ public class OrderController extends HardworkingController {
             throw ex;
         }
         if (order.isCompleted() && !orderDb.get().isCompleted()) {
-            Book book = verifyBook(order.getIsbn());
+            Book book = verifyBook(order.getIsbn(), true);
             // complete the order
-            buyFromStorage(storage, order, book);
+            buyFromStorage("update", storage, order, book);
         } else if (!order.isCompleted() && orderDb.get().isCompleted()) {
             // cancel the order
-            returnToStorage(storage, order);
+            returnToStorage("update", storage, order);
         }
 
         return orderRepository.save(order);
     }
 
-    // submit order
+    // submit order; with an Idempotency-Key a retry gets the response of the first attempt instead of buying again.
+    // With orders.payment.mode=async the answer is 202 and the order pending until the PaymentWorker settles it
     @PostMapping("/submit")
-    public Order submitOrder(@RequestBody Order order) {
+    public Mono<ResponseEntity<Order>> submitOrder(@RequestBody Order order, @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey) {
+        if (isReactive() && !isAsyncPayment()) {
+            Mono<Order> submit = orderLocks.withLock(order.getEmail(), order.getIsbn(), Mono.defer(() -> submitOrderReactive(order)));
+            if (null == idempotencyKey) {
+                return submit.map(this::submitted);
+            }
+            // the store waits on JDBC and on duplicates in flight, keep it off the event loop
+            return Mono.fromCallable(() -> idempotencyStore.execute(idempotencyKey, "submit", order, Order.class, submit::block))
+                    .subscribeOn(Schedulers.boundedElastic())
+                    .map(this::submitted);
+        }
+        Supplier<Order> submit = () -> orderLocks.withLock(order.getEmail(), order.getIsbn(),
+                () -> isAsyncPayment() ? submitOrderAsyncPayment(order) : submitOrderBlocking(order));
+        if (null == idempotencyKey) {
+            return Mono.just(submitted(submit.get()));
+        }
+        return Mono.just(submitted(idempotencyStore.execute(idempotencyKey, "submit", order, Order.class, submit)));
+    }
+
+    // also right for replays of a stored response, the status follows the order
+    private ResponseEntity<Order> submitted(Order order) {
+        return order.isPaymentPending() ? ResponseEntity.accepted().body(order) : ResponseEntity.ok(order);
+    }
+
+    private Order submitOrderBlocking(Order order) {
         simulateHardWork();
         simulateCrash();
-        logger.info("Submitting order " + order.getIsbn() + " client " + order.getEmail());
+        logger.info("Submitting order {} client {}", order.getIsbn(), order.getEmail());
         Order orderDb = orderRepository.findByEmailAndIsbn(order.getEmail(), order.getIsbn());
         if (null == orderDb) {
-            logger.error("Order not found, ISBN " + order.getIsbn() + " client " + order.getEmail());
+            logger.error("Order not found, ISBN {} client {}", order.getIsbn(), order.getEmail());
             orderDb = order; // making a new order then
-        } else if (orderDb.isCompleted()) {
-            logger.error("Order is already paid, ISBN " + order.getIsbn() + " client " + order.getEmail());
+        } else if (orderDb.isCompleted() || orderDb.isPaymentPending()) {
+            logger.error("Order is already paid, ISBN {} client {}", order.getIsbn(), order.getEmail());
             return orderDb; // no need to buy again
         }
-        verifyClient(order.getEmail());
-        Book book = verifyBook(order.getIsbn());
-        Storage storage;
+        Verified verified = verifySubmit(order);
+
+        orderDb.setQuantity(order.getQuantity());
+
+        buyFromStorage("submit", verified.storage(), orderDb, verified.book());
+        logger.debug("Submitted order for book {} client {}", order.getIsbn(), order.getEmail());
+        Order submitted = orderDb;
+        return flowMetrics.record("submit", "persist", () -> orderRepository.save(submitted));
+    }
+
+    // takes the books and stores the order as payment-pending together with its outbox row, the PaymentWorker pays
+    private Order submitOrderAsyncPayment(Order order) {
+        simulateHardWork();
+        simulateCrash();
+        logger.info("Submitting order {} client {} for asynchronous payment", order.getIsbn(), order.getEmail());
+        Order orderDb = orderRepository.findByEmailAndIsbn(order.getEmail(), order.getIsbn());
+        if (null == orderDb) {
+            logger.error("Order not found, ISBN {} client {}", order.getIsbn(), order.getEmail());
+            orderDb = order; // making a new order then
+        } else if (orderDb.isCompleted() || orderDb.isPaymentPending()) {
+            logger.error("Order is already paid, ISBN {} client {}", order.getIsbn(), order.getEmail());
+            return orderDb; // no need to buy again
+        }
+        Verified verified = verifySubmit(order);
+
+        orderDb.setQuantity(order.getQuantity());
+
+        takeFromStorage("submit", verified.storage(), orderDb, verified.book());
+        Order submitted = orderDb;
         try {
-            storage = verifyStorage(order.getIsbn(), order.getQuantity());
+            return flowMetrics.record("submit", "enqueue", () -> paymentOutbox.enqueue(submitted, verified.storage(), paymentAmount(submitted)));
+        } catch (RuntimeException ex) {
+            // nobody would pay for the books taken
+            logger.error("Could not store order for payment, returning books to storage: {}", ex.getMessage());
+            compensatePurchase("submit", "enqueue_failed", verified.storage());
+            throw ex;
+        }
+    }
+
+    private Verified verifySubmit(Order order) {
+        List<Object> verified;
+        try {
+            verified = flowMetrics.record("submit", "verify", () -> verificationStage.verify(
+                    () -> {
+                        verifyClient(order.getEmail());
+                        return null;
+                    },
+                    () -> verifyBook(order.getIsbn(), true),
+                    () -> verifyStorage(order.getIsbn(), order.getQuantity())));
         } catch (InsufficientResourcesException ex) {
             logger.error(ex.getMessage());
             throw ex;
         }
+        return new Verified((Book) verified.get(1), (Storage) verified.get(2));
+    }
 
-        orderDb.setQuantity(order.getQuantity());
+    // submit order without blocking a request thread: storage -> payment -> compensation run on the WebClient,
+    // only the JPA calls go to the bounded elastic scheduler
+    private Mono<Order> submitOrderReactive(Order order) {
+        simulateHardWork();
+        simulateCrash();
+        logger.info("Submitting order {} client {}", order.getIsbn(), order.getEmail());
+        return Mono.fromCallable(() -> Optional.ofNullable(orderRepository.findByEmailAndIsbn(order.getEmail(), order.getIsbn())))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(orderDb -> {
+                    if (orderDb.isEmpty()) {
+                        logger.error("Order not found, ISBN {} client {}", order.getIsbn(), order.getEmail());
+                        return buyReactive(order, order); // making a new order then
+                    } else if (orderDb.get().isCompleted() || orderDb.get().isPaymentPending()) {
+                        logger.error("Order is already paid, ISBN {} client {}", order.getIsbn(), order.getEmail());
+                        return Mono.just(orderDb.get()); // no need to buy again
+                    }
+                    return buyReactive(order, orderDb.get());
+                });
+    }
 
-        buyFromStorage(storage, orderDb, book);
-        logger.debug("Submitted order for book " + order.getIsbn() + " client " + order.getEmail());
-        return orderRepository.save(orderDb);
+    private Mono<Order> buyReactive(Order order, Order orderDb) {
+        return flowMetrics.record("submit", "verify", verifyReactive(order))
+                .flatMap(verified -> {
+                    orderDb.setQuantity(order.getQuantity());
+                    return buyFromStorageReactive(verified.storage(), orderDb, verified.book());
+                })
+                .publishOn(Schedulers.boundedElastic())
+                .map(bought -> {
+                    logger.debug("Submitted order for book {} client {}", order.getIsbn(), order.getEmail());
+                    return flowMetrics.record("submit", "persist", () -> orderRepository.save(bought));
+                });
     }
 
-    // cancel order
+    // cancel order, idempotent like submit when the Idempotency-Key header is set
     @PostMapping("/cancel")
-    public Order cancelOrder(@RequestBody Order order) {
+    public Order cancelOrder(@RequestBody Order order, @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey) {
+        Supplier<Order> cancelLocked = () -> orderLocks.withLock(order.getEmail(), order.getIsbn(), () -> cancel(order));
+        if (null == idempotencyKey) {
+            return cancelLocked.get();
+        }
+        return idempotencyStore.execute(idempotencyKey, "cancel", order, Order.class, cancelLocked);
+    }
+
+    private Order cancel(Order order) {
         simulateHardWork();
         simulateCrash();
-        logger.info("Canceling order " + order.getIsbn() + " client " + order.getEmail());
+        logger.info("Canceling order {} client {}", order.getIsbn(), order.getEmail());
         Order orderDb = orderRepository.findByEmailAndIsbn(order.getEmail(), order.getIsbn());
         if (null == orderDb) {
             BadRequestException ex = new BadRequestException("Order not found, ISBN " + order.getIsbn() + " client " + order.getEmail());
@@ -185,15 +574,15 @@ public class OrderController extends HardworkingController {
         }
         orderDb.setQuantity(order.getQuantity());
 
-        returnToStorage(storage, orderDb);
-        logger.debug("Canceled order for book " + order.getIsbn() + " client " + order.getEmail());
-        return orderRepository.save(orderDb);
+        returnToStorage("cancel", storage, orderDb);
+        logger.debug("Canceled order for book {} client {}", order.getIsbn(), order.getEmail());
+        return flowMetrics.record("cancel", "persist", () -> orderRepository.save(orderDb));
     }
 
     // delete an order
     @DeleteMapping("/{id}")
     public void deleteOrderById(@PathVariable Long id) {
-        logger.info("Deleting order " + id.toString());
+        logger.info("Deleting order {}", id);
         orderRepository.deleteById(id);
     }
 
@@ -202,10 +591,11 @@ public class OrderController extends HardworkingController {
     public void deleteAllBooks() {
         logger.info("Deleting all orders");
         orderRepository.truncateTable();
+        orderCounter.reset();
     }
 
     private void verifyClient(String email) {
-        logger.info("Verifying client " + email);
+        logger.info("Verifying client {}", email);
         Client client = clientRepository.getClientByEmail(email);
         if (null == client) {
             ResourceNotFoundException ex = new ResourceNotFoundException("Client is not found by email " + email);
@@ -213,12 +603,101 @@ public class OrderController extends HardworkingController {
             throw ex;
         }
         Client[] clients = clientRepository.getAllClients();
-        logger.debug(clients.toString());
+        logger.debug("All clients: {}", (Object) clients);
     }
 
-    private Book verifyBook(String isbn) {
-        logger.info("Verifying book " + isbn);
-        Book book = bookRepository.getBookByISBN(isbn);
+    private int pageSize(Integer limit) {
+        if (null == limit) {
+            return defaultPageSize;
+        } else if (limit <= 0) {
+            throw new BadRequestException("Page limit must be greater than zero. Got: " + limit);
+        }
+        return Math.min(limit, maxPageSize);
+    }
+
+    // whole entities when no fields are asked for, otherwise OrderViews narrowed to the fields
+    private MappingJacksonValue orders(List<String> fields, Supplier<List<Order>> entities, Supplier<List<OrderView>> views) {
+        if (null == fields) {
+            return new MappingJacksonValue(replicaRouting.read(entities));
+        }
+        Set<String> selected = OrderView.fields(fields);
+        MappingJacksonValue value = new MappingJacksonValue(replicaRouting.read(views));
+        value.setFilters(new SimpleFilterProvider().addFilter(OrderView.FIELDS_FILTER, selected.isEmpty()
+                ? SimpleBeanPropertyFilter.serializeAll()
+                : SimpleBeanPropertyFilter.filterOutAllExcept(selected)));
+        return value;
+    }
+
+    private OrderPage page(List<Order> orders, int pageSize) {
+        String nextCursor = orders.size() < pageSize ? null : OrderCursor.of(orders.get(orders.size() - 1)).encode();
+        return new OrderPage(orders, nextCursor);
+    }
+
+    // one JSON object per row, written straight from the JDBC cursor with the same fields Jackson writes for an Order
+    private void writeNdjson(OutputStream out, Consumer<RowCallbackHandler> query) throws IOException {
+        JsonGenerator generator = objectMapper.createGenerator(out);
+        query.accept(rs -> {
+            try {
+                generator.writeStartObject();
+                generator.writeNumberField("id", rs.getLong("id"));
+                generator.writeStringField("email", rs.getString("email"));
+                generator.writeStringField("isbn", rs.getString("isbn"));
+                generator.writeNumberField("quantity", rs.getInt("quantity"));
+                generator.writeNumberField("price", rs.getDouble("price"));
+                generator.writeBooleanField("completed", rs.getBoolean("completed"));
+                generator.writeStringField("paymentStatus", rs.getString("payment_status"));
+                generator.writeBooleanField("paymentPending", Order.PAYMENT_PENDING.equals(rs.getString("payment_status")));
+                generator.writeFieldName("updatedAt");
+                generator.writeObject(new Date(rs.getTimestamp("updated_at").getTime()));
+                generator.writeFieldName("createdAt");
+                generator.writeObject(new Date(rs.getTimestamp("created_at").getTime()));
+                generator.writeEndObject();
+                generator.writeRaw('\n');
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        });
+        generator.flush();
+    }
+
+    // a client that appears in several orders of a batch is looked up only once
+    private void verifyClientOnce(String email, Map<String, RuntimeException> verifiedClients) {
+        if (verifiedClients.containsKey(email)) {
+            RuntimeException error = verifiedClients.get(email);
+            if (null != error) {
+                throw error;
+            }
+            return;
+        }
+        try {
+            verifyClient(email);
+            verifiedClients.put(email, null);
+        } catch (RuntimeException ex) {
+            verifiedClients.put(email, ex);
+            throw ex;
+        }
+    }
+
+    private BatchOrderResult batchFailure(int index, String email, String isbn, Exception ex) {
+        int status = HttpStatus.INTERNAL_SERVER_ERROR.value();
+        String message = ex.getMessage();
+        Throwable cause = ex;
+        while (null != cause && !(cause instanceof ResponseStatusException)) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof ResponseStatusException statusException) {
+            status = statusException.getRawStatusCode();
+            message = statusException.getReason();
+        } else if (ex instanceof JsonProcessingException) {
+            status = HttpStatus.BAD_REQUEST.value();
+        }
+        logger.error("Batch order {} failed: {}", index, message);
+        return new BatchOrderResult(index, email, isbn, status, message, null);
+    }
+
+    private Book verifyBook(String isbn, boolean fresh) {
+        logger.info("Verifying book {}", isbn);
+        Book book = bookRepository.getBookByISBN(isbn, fresh);
         if (null == book) {
             ResourceNotFoundException ex = new ResourceNotFoundException("Book not found by isbn " + isbn);
             logger.error(ex.getMessage());
@@ -229,28 +708,48 @@ public class OrderController extends HardworkingController {
             logger.error(ex.getMessage());
             throw ex;
         }
-        Book[] books = bookRepository.getAllBooks();
-        logger.debug(books.toString());
         return book;
     }
 
+    // the ledger answers when the stock is clearly short or clearly sufficient, the storage service otherwise
     private Storage verifyStorage(String isbn, int quantity) throws InsufficientResourcesException {
-        logger.info("Verifying storage " + isbn);
-        Storage storage = storageRepository.getStorageByISBN(isbn);
+        logger.info("Verifying storage {}", isbn);
+        Storage storage = null;
+        if (!inventoryLedger.clearlyInsufficient(isbn, quantity)) {
+            storage = inventoryLedger.availableStorage(isbn, quantity);
+            if (null == storage) {
+                storage = storageRepository.getStorageByISBN(isbn);
+            }
+        }
         if (quantity > 0 && (null == storage || storage.getQuantity() < quantity)) {
             InsufficientResourcesException ex = new InsufficientResourcesException("We do not have enough books in storage, ISBN: " + isbn);
             logger.error(ex.getMessage());
             throw ex;
         }
-        Storage[] storages = storageRepository.getAllBooksInStorage();
-        logger.debug(storages.toString());
         return storage;
     }
 
-    private void buyFromStorage(Storage storage, Order order, Book book) {
+    private void buyFromStorage(String flow, Storage storage, Order order, Book book) {
+        takeFromStorage(flow, storage, order, book);
+        try {
+            flowMetrics.record(flow, "pay", () -> {
+                payOrder(order);
+                return null;
+            });
+        } catch (PaymentException paymentException) {
+            logger.error("RETURNING BOOKS TO STORAGE");
+            logger.error(paymentException.getMessage());
+            compensatePurchase(flow, "payment_failed", storage);
+            order.setCompleted(false);
+            throw paymentException;
+        }
+        logger.debug("Took from Storage book {} client {}", order.getIsbn(), order.getEmail());
+    }
+
+    private void takeFromStorage(String flow, Storage storage, Order order, Book book) {
         simulateHardWork();
         simulateCrash();
-        logger.info("Buying from storage " + book.getIsbn() + " for client " + order.getEmail());
+        logger.info("Buying from storage {} for client {}", book.getIsbn(), order.getEmail());
         if (!storage.getIsbn().equals(order.getIsbn())) {
             BadRequestException ex = new BadRequestException("Wrong storage for ISBN: " + order.getIsbn());
             logger.error(ex.getMessage());
@@ -268,27 +767,157 @@ public class OrderController extends HardworkingController {
             order.setPrice(book.getPrice());
         }
         try {
-            storageRepository.buyBook(storage);
+            flowMetrics.record(flow, "buy", () -> storageRepository.buyBook(storage));
         } catch (PurchaseForbiddenException purchaseForbiddenException) {
             order.setCompleted(false);
             throw purchaseForbiddenException;
         }
+    }
+
+    // same checks as verifyClient/verifyBook/verifyStorage; all three run at once and, like the blocking stage,
+    // the failure of the first check in that order wins
+    private Mono<Verified> verifyReactive(Order order) {
+        Mono<Optional<Throwable>> client = reactiveClientRepository.getClientByEmail(order.getEmail())
+                .then(Mono.<Optional<Throwable>>just(Optional.empty()))
+                .onErrorResume(ex -> Mono.just(Optional.of(ex)));
+        Mono<Object> book = reactiveBookRepository.getBookByISBN(order.getIsbn(), true)
+                .<Object>flatMap(found -> {
+                    if (!found.isPublished()) {
+                        ResourceNotFoundException ex = new ResourceNotFoundException("The book is not yet vendible, ISBN: " + order.getIsbn());
+                        logger.error(ex.getMessage());
+                        return Mono.error(ex);
+                    }
+                    return Mono.just(found);
+                })
+                .onErrorResume(Mono::just);
+        Mono<Object> storage = storageReactive(order.getIsbn(), order.getQuantity())
+                .filter(found -> order.getQuantity() <= 0 || found.getQuantity() >= order.getQuantity())
+                .<Object>map(found -> found)
+                .switchIfEmpty(Mono.error(() -> {
+                    InsufficientResourcesException ex = new InsufficientResourcesException("We do not have enough books in storage, ISBN: " + order.getIsbn());
+                    logger.error(ex.getMessage());
+                    return ex;
+                }))
+                .onErrorResume(Mono::just);
+        return Mono.zip(client, book, storage)
+                .timeout(Duration.ofMillis(verifyTimeoutMs), Mono.error(() -> new TimeOutException("Order verification did not finish in " + verifyTimeoutMs + " ms")))
+                .flatMap(results -> {
+                    if (results.getT1().isPresent()) {
+                        return Mono.error(results.getT1().get());
+                    } else if (results.getT2() instanceof Throwable ex) {
+                        return Mono.error(ex);
+                    } else if (results.getT3() instanceof Throwable ex) {
+                        return Mono.error(ex);
+                    }
+                    return Mono.just(new Verified((Book) results.getT2(), (Storage) results.getT3()));
+                });
+    }
+
+    // the ledger decisions of verifyStorage; empty when the stock is clearly short
+    private Mono<Storage> storageReactive(String isbn, int quantity) {
+        return Mono.defer(() -> {
+            if (inventoryLedger.clearlyInsufficient(isbn, quantity)) {
+                return Mono.empty();
+            }
+            Storage storage = inventoryLedger.availableStorage(isbn, quantity);
+            return null == storage ? reactiveStorageRepository.getStorageByISBN(isbn) : Mono.just(storage);
+        });
+    }
+
+    private Mono<Order> buyFromStorageReactive(Storage storage, Order order, Book book) {
+        return simulateHardWorkReactive().then(Mono.defer(() -> {
+            logger.info("Buying from storage {} for client {}", book.getIsbn(), order.getEmail());
+            if (!storage.getIsbn().equals(order.getIsbn())) {
+                BadRequestException ex = new BadRequestException("Wrong storage for ISBN: " + order.getIsbn());
+                logger.error(ex.getMessage());
+                return Mono.error(ex);
+            }
+            storage.setQuantity(order.getQuantity());
+            if (!order.isCompleted()) {
+                order.setCompleted(true);
+            }
+            if (book.getPrice() > order.getPrice()) {
+                PurchaseForbiddenException ex = new PurchaseForbiddenException("Price changed for book ISBN: " + book.getIsbn());
+                logger.error(ex.getMessage());
+                return Mono.error(ex);
+            } else if (book.getPrice() < order.getPrice()) {
+                order.setPrice(book.getPrice());
+            }
+            return flowMetrics.record("submit", "buy", reactiveStorageRepository.buyBook(storage))
+                    .onErrorResume(PurchaseForbiddenException.class, purchaseForbiddenException -> {
+                        order.setCompleted(false);
+                        return Mono.error(purchaseForbiddenException);
+                    })
+                    .then(flowMetrics.record("submit", "pay", payOrderReactive(order)).onErrorResume(PaymentException.class, paymentException -> {
+                        logger.error("RETURNING BOOKS TO STORAGE");
+                        logger.error(paymentException.getMessage());
+                        return flowMetrics.record("submit", "compensate", reactiveStorageRepository.returnBook(storage))
+                                .doOnSuccess(returned -> flowMetrics.compensation("submit", "payment_failed", true))
+                                .doOnError(ex -> flowMetrics.compensation("submit", "payment_failed", false))
+                                .then(Mono.defer(() -> {
+                                    order.setCompleted(false);
+                                    return Mono.error(paymentException);
+                                }));
+                    }))
+                    .then(Mono.fromCallable(() -> {
+                        logger.debug("Took from Storage book {} client {}", order.getIsbn(), order.getEmail());
+                        return order;
+                    }));
+        }));
+    }
+
+    private Mono<Payment> payOrderReactive(Order order) {
+        return simulateHardWorkReactive().then(Mono.defer(() -> {
+            logger.info("Paying order {} client {}", order.getIsbn(), order.getEmail());
+            Payment payment = new Payment(order.getId(), paymentAmount(order), order.getEmail());
+            return reactivePaymentRepository.submitPayment(payment)
+                    .onErrorMap(RuntimeException.class, ex -> {
+                        logger.error("Payment Crashed: {}", ex.getMessage());
+                        return new PaymentException(ex.getMessage());
+                    })
+                    .flatMap(paid -> {
+                        if (!paid.isSucceeded()) {
+                            PaymentException ex = new PaymentException("Payment Failed: " + paid.getMessage());
+                            logger.error("Payment Failed: {}", ex.getMessage());
+                            return Mono.error(new PaymentException(ex.getMessage()));
+                        }
+                        logger.debug("Paid order for book {} client {}", order.getIsbn(), order.getEmail());
+                        return Mono.just(paid);
+                    });
+        }));
+    }
+
+    // the simulated hard work burns CPU, keep it off the netty event loop
+    private Mono<Void> simulateHardWorkReactive() {
+        return Mono.<Void>fromRunnable(() -> {
+            simulateHardWork();
+            simulateCrash();
+        }).subscribeOn(Schedulers.parallel());
+    }
+
+    private boolean isReactive() {
+        return "reactive".equals(httpClientMode);
+    }
+
+    private boolean isAsyncPayment() {
+        return "async".equals(paymentMode);
+    }
+
+    // gives the books back after the payment failed
+    private void compensatePurchase(String flow, String reason, Storage storage) {
         try {
-            payOrder(order);
-        } catch (PaymentException paymentException) {
-            logger.error("RETURNING BOOKS TO STORAGE");
-            logger.error(paymentException.getMessage());
-            storageRepository.returnBook(storage);
-            order.setCompleted(false);
-            throw paymentException;
+            flowMetrics.record(flow, "compensate", () -> storageRepository.returnBook(storage));
+            flowMetrics.compensation(flow, reason, true);
+        } catch (RuntimeException ex) {
+            flowMetrics.compensation(flow, reason, false);
+            throw ex;
         }
-        logger.debug("Took from Storage book " + order.getIsbn() + " client " + order.getEmail());
     }
 
-    private void returnToStorage(Storage storage, Order order) {
+    private void returnToStorage(String flow, Storage storage, Order order) {
         simulateHardWork();
         simulateCrash();
-        logger.info("Returning to storage " + order.getIsbn() + " for client " + order.getEmail());
+        logger.info("Returning to storage {} for client {}", order.getIsbn(), order.getEmail());
         if (!storage.getIsbn().equals(order.getIsbn())) {
             BadRequestException ex = new BadRequestException("Wrong storage for ISBN: " + order.getIsbn());
             logger.error(ex.getMessage());
@@ -299,35 +928,42 @@ public class OrderController extends HardworkingController {
         }
         storage.setQuantity(order.getQuantity());
         try {
-            storageRepository.returnBook(storage);
+            flowMetrics.record(flow, "return", () -> storageRepository.returnBook(storage));
         } catch (PurchaseForbiddenException purchaseForbiddenException) {
             logger.error(purchaseForbiddenException.getMessage());
             order.setCompleted(true);
         }
-        logger.debug("Returned order for book " + order.getIsbn() + " client " + order.getEmail());
+        logger.debug("Returned order for book {} client {}", order.getIsbn(), order.getEmail());
     }
 
     private void payOrder(Order order) throws PaymentException {
         simulateHardWork();
         simulateCrash();
-        logger.info("Paying order " + order.getIsbn() + " client " + order.getEmail());
-        Payment payment = new Payment(order.getId(), order.getPrice() * order.getPrice(), order.getEmail());
+        logger.info("Paying order {} client {}", order.getIsbn(), order.getEmail());
+        Payment payment = new Payment(order.getId(), paymentAmount(order), order.getEmail());
         try {
             payment = paymentRepository.submitPayment(payment);
         } catch (RuntimeException ex) {
-            logger.error("Payment Crashed: " + ex.getMessage());
+            logger.error("Payment Crashed: {}", ex.getMessage());
             throw new PaymentException(ex.getMessage());
         }
         if (null == payment || !payment.isSucceeded()) {
             PaymentException ex = new PaymentException("Payment Failed: " + (null == payment ? "no response" : payment.getMessage()));
-            logger.error("Payment Failed: " + ex.getMessage());
+            logger.error("Payment Failed: {}", ex.getMessage());
             throw new PaymentException(ex.getMessage());
         }
-        logger.debug("Paid order for book " + order.getIsbn() + " client " + order.getEmail());
+        logger.debug("Paid order for book {} client {}", order.getIsbn(), order.getEmail());
+    }
+
+    private double paymentAmount(Order order) {
+        return order.getPrice() * order.getPrice();
+    }
+
+    private record Verified(Book book, Storage storage) {
     }
 
     @Override
-    public ConfigRepository getConfigRepository() {
-        return configRepository;
+    public ConfigCache getConfigCache() {
+        return configCache;
     }
 }
@@ -1,7 +1,7 @@
 package com.dynatrace.orders.controller;
 
 import com.dynatrace.orders.model.Version;
-import com.dynatrace.orders.repository.OrderRepository;
+import com.dynatrace.orders.service.OrderCounter;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -13,7 +13,7 @@ import org.springframework.web.bind.annotation.RestController;
 @RequestMapping("/api/v1/version")
 public class VersionController {
     @Autowired
-    private OrderRepository orderRepository;
+    private OrderCounter orderCounter;
     @Value("${service.version}")
     private String svcVer;
     @Value("${service.date}")
@@ -21,6 +21,7 @@ public class VersionController {
 
     @GetMapping("")
     public Version getVersion() {
-        return new Version("orders", svcVer, svcDate, "OK", "Count: " + orderRepository.count());
+        // probed every few seconds by the orchestrator, the count is approximate
+        return new Version("orders", svcVer, svcDate, "OK", "Count: " + orderCounter.get());
     }
 }
@@ -0,0 +1,14 @@
+package com.dynatrace.orders.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+@ResponseStatus(value = HttpStatus.CONFLICT)
+public class ConflictException extends ResponseStatusException {
+    private static final long serialVersionUID = 1L;
+
+    public ConflictException(String message) {
+        super(HttpStatus.CONFLICT, message);
+    }
+}
@@ -0,0 +1,70 @@
+package com.dynatrace.orders.model;
+
+public class BatchOrderResult {
+    private int index;
+    private String email;
+    private String isbn;
+    private int status;
+    private String message;
+    private Order order;
+
+    public BatchOrderResult() {
+    }
+
+    public BatchOrderResult(int index, String email, String isbn, int status, String message, Order order) {
+        this.index = index;
+        this.email = email;
+        this.isbn = isbn;
+        this.status = status;
+        this.message = message;
+        this.order = order;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public void setEmail(String email) {
+        this.email = email;
+    }
+
+    public String getIsbn() {
+        return isbn;
+    }
+
+    public void setIsbn(String isbn) {
+        this.isbn = isbn;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    public Order getOrder() {
+        return order;
+    }
+
+    public void setOrder(Order order) {
+        this.order = order;
+    }
+}
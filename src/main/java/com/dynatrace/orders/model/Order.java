@@ -1,16 +1,23 @@
 package com.dynatrace.orders.model;
 
 import com.dynatrace.orders.exception.BadRequestException;
+import com.dynatrace.orders.service.OrderCountListener;
 
 import javax.persistence.*;
 import java.util.Date;
 
 @Entity
+@EntityListeners(OrderCountListener.class)
 @Table(name="orders", uniqueConstraints = @UniqueConstraint(columnNames = {"email","isbn"}))
 public class Order {
-    private final String emailRegExp = "^(?=.{1,64}@)[A-Za-z0-9_-]+(\\.[A-Za-z0-9_-]+)*@[^-][A-Za-z0-9-]+(\\.[A-Za-z0-9-]+)*(\\.[A-Za-z]{2,})$";
+    public static final String PAYMENT_PENDING = "PENDING";
+    public static final String PAYMENT_PAID = "PAID";
+    public static final String PAYMENT_FAILED = "FAILED";
+
+    // pooled sequence instead of an identity column, so Hibernate can batch the inserts
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "orders_seq")
+    @SequenceGenerator(name = "orders_seq", sequenceName = "orders_seq", allocationSize = 50)
     private long id;
 
     @Column(name="email", nullable = false)
@@ -28,16 +35,20 @@ public class Order {
     @Column(name="completed", nullable = false)
     private boolean completed;
 
+    // only set for orders paid through the outbox, see PaymentOutbox
+    @Column(name="payment_status", length = 16)
+    private String paymentStatus;
+
     @Column(name="updated_at", nullable = false)
     @Temporal(TemporalType.TIMESTAMP)
     private Date updatedAt;
 
-    @Column(name="created_at", nullable = false)
+    @Column(name="created_at", nullable = false, updatable = false)
     @Temporal(TemporalType.TIMESTAMP)
     private Date createdAt;
 
+    // timestamps are set once per flush in onPersist/onUpdate, not by every setter
     public Order() {
-        this.updatedAt = this.createdAt = new Date();
     }
 
     public Order(long id, String email, String isbn, int quantity, double price, boolean completed) {
@@ -47,7 +58,6 @@ public class Order {
         this.setQuantity(quantity);
         this.setPrice(price);
         this.completed = completed;
-        this.updatedAt = this.createdAt = new Date();
     }
 
     public long getId() {
@@ -56,7 +66,6 @@ public class Order {
 
     public void setId(long id) {
         this.id = id;
-        this.updatedAt = new Date();
     }
 
     public String getEmail() {
@@ -64,11 +73,10 @@ public class Order {
     }
 
     public void setEmail(String email) {
-        if (!email.matches(this.emailRegExp)) {
+        if (!OrderValidation.isValidEmail(email)) {
             throw new BadRequestException("Invalid email address");
         }
         this.email = email;
-        this.updatedAt = new Date();
     }
 
     public String getIsbn() {
@@ -76,11 +84,10 @@ public class Order {
     }
 
     public void setIsbn(String isbn) {
-        if (isbn.length() != 13 || !isbn.matches("^\\d{13}$")) {
+        if (!OrderValidation.isValidIsbn(isbn)) {
             throw new BadRequestException("ISBN must be a 13-digits value");
         }
         this.isbn = isbn;
-        this.updatedAt = new Date();
     }
 
     public int getQuantity() {
@@ -92,7 +99,6 @@ public class Order {
             throw new BadRequestException("Quantity must be greater than zero. Got: " + quantity);
         }
         this.quantity = quantity;
-        this.updatedAt = new Date();
     }
 
     public double getPrice() {
@@ -105,7 +111,6 @@ public class Order {
             throw new BadRequestException("Invalid price. Must be between 0 and 1 million. Got: " + price);
         }
         this.price = price;
-        this.updatedAt = new Date();
     }
 
     public boolean isCompleted() {
@@ -117,7 +122,36 @@ public class Order {
             throw new BadRequestException("Cannot complete the order while price is 0");
         }
         this.completed = completed;
+    }
+
+    public String getPaymentStatus() {
+        return paymentStatus;
+    }
+
+    public void setPaymentStatus(String paymentStatus) {
+        this.paymentStatus = paymentStatus;
+    }
+
+    public boolean isPaymentPending() {
+        return PAYMENT_PENDING.equals(paymentStatus);
+    }
+
+    @PrePersist
+    protected void onPersist() {
+        Date now = new Date();
+        if (null == this.createdAt) {
+            this.createdAt = now;
+        }
+        this.updatedAt = now;
+    }
+
+    @PreUpdate
+    protected void onUpdate() {
         this.updatedAt = new Date();
+        if (null == this.createdAt) {
+            // merged from a request body, the stored value is kept since the column is not updatable
+            this.createdAt = this.updatedAt;
+        }
     }
 
     public Date getUpdatedAt() {
@@ -0,0 +1,50 @@
+package com.dynatrace.orders.model;
+
+import com.dynatrace.orders.exception.BadRequestException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+
+// position of the last order of a page in the (email, createdAt, id) sort order, opaque to the callers
+public class OrderCursor {
+    private final String email;
+    private final Date createdAt;
+    private final long id;
+
+    public OrderCursor(String email, Date createdAt, long id) {
+        this.email = email;
+        this.createdAt = createdAt;
+        this.id = id;
+    }
+
+    public static OrderCursor of(Order order) {
+        return new OrderCursor(order.getEmail(), order.getCreatedAt(), order.getId());
+    }
+
+    public static OrderCursor decode(String cursor) {
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":", 3);
+            return new OrderCursor(parts[2], new Date(Long.parseLong(parts[0])), Long.parseLong(parts[1]));
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException ex) {
+            throw new BadRequestException("Invalid cursor");
+        }
+    }
+
+    public String encode() {
+        String value = createdAt.getTime() + ":" + id + ":" + email;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public Date getCreatedAt() {
+        return createdAt;
+    }
+
+    public long getId() {
+        return id;
+    }
+}
@@ -0,0 +1,32 @@
+package com.dynatrace.orders.model;
+
+import java.util.List;
+
+public class OrderPage {
+    private List<Order> items;
+    private String nextCursor;
+
+    public OrderPage() {
+    }
+
+    public OrderPage(List<Order> items, String nextCursor) {
+        this.items = items;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<Order> getItems() {
+        return items;
+    }
+
+    public void setItems(List<Order> items) {
+        this.items = items;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+}
@@ -0,0 +1,29 @@
+package com.dynatrace.orders.model;
+
+import java.util.regex.Pattern;
+
+// checks behind the Order setters, which run for every bound JSON body; the pattern is compiled once
+public final class OrderValidation {
+    private static final Pattern EMAIL = Pattern.compile("^(?=.{1,64}@)[A-Za-z0-9_-]+(\\.[A-Za-z0-9_-]+)*@[^-][A-Za-z0-9-]+(\\.[A-Za-z0-9-]+)*(\\.[A-Za-z]{2,})$");
+
+    private OrderValidation() {
+    }
+
+    public static boolean isValidEmail(String email) {
+        return null != email && EMAIL.matcher(email).matches();
+    }
+
+    // 13 ASCII digits, no regex needed
+    public static boolean isValidIsbn(String isbn) {
+        if (null == isbn || isbn.length() != 13) {
+            return false;
+        }
+        for (int i = 0; i < 13; i++) {
+            char c = isbn.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
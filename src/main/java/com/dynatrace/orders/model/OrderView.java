@@ -0,0 +1,96 @@
+package com.dynatrace.orders.model;
+
+import com.dynatrace.orders.exception.BadRequestException;
+import com.fasterxml.jackson.annotation.JsonFilter;
+
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Read-only copy of an order, selected by the OrderRepository view queries: no managed entity, no dirty-checking
+// snapshot. Serialized with the same fields as an Order, narrowed to the fields= of the request by FIELDS_FILTER
+@JsonFilter(OrderView.FIELDS_FILTER)
+public class OrderView {
+    public static final String FIELDS_FILTER = "orderFields";
+    public static final Set<String> FIELDS = Set.of("id", "email", "isbn", "quantity", "price", "completed",
+            "paymentStatus", "paymentPending", "updatedAt", "createdAt");
+    private final long id;
+    private final String email;
+    private final String isbn;
+    private final int quantity;
+    private final double price;
+    private final boolean completed;
+    private final String paymentStatus;
+    private final Date updatedAt;
+    private final Date createdAt;
+
+    public OrderView(long id, String email, String isbn, int quantity, double price, boolean completed,
+                     String paymentStatus, Date updatedAt, Date createdAt) {
+        this.id = id;
+        this.email = email;
+        this.isbn = isbn;
+        this.quantity = quantity;
+        this.price = price;
+        this.completed = completed;
+        this.paymentStatus = paymentStatus;
+        this.updatedAt = updatedAt;
+        this.createdAt = createdAt;
+    }
+
+    // trims and checks the requested fields, unknown ones are a bad request
+    public static Set<String> fields(List<String> requested) {
+        Set<String> fields = new HashSet<>();
+        for (String field : requested) {
+            String name = field.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            if (!FIELDS.contains(name)) {
+                throw new BadRequestException("Unknown order field: " + name);
+            }
+            fields.add(name);
+        }
+        return fields;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public String getIsbn() {
+        return isbn;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public double getPrice() {
+        return price;
+    }
+
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    public String getPaymentStatus() {
+        return paymentStatus;
+    }
+
+    public boolean isPaymentPending() {
+        return Order.PAYMENT_PENDING.equals(paymentStatus);
+    }
+
+    public Date getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public Date getCreatedAt() {
+        return createdAt;
+    }
+}
@@ -0,0 +1,122 @@
+package com.dynatrace.orders.model;
+
+// a row of payment_outbox: what to charge, and what to give back to the storage if the payment fails
+public class PaymentOutboxEntry {
+    public static final String STAGE_PAY = "PAY";
+    public static final String STAGE_COMPENSATE = "COMPENSATE";
+
+    private long id;
+    private long orderId;
+    private String email;
+    private String isbn;
+    private int quantity;
+    private long storageId;
+    private double amount;
+    private String stage;
+    private int attempts;
+
+    public PaymentOutboxEntry() {
+    }
+
+    public PaymentOutboxEntry(long id, long orderId, String email, String isbn, int quantity, long storageId, double amount,
+                              String stage, int attempts) {
+        this.id = id;
+        this.orderId = orderId;
+        this.email = email;
+        this.isbn = isbn;
+        this.quantity = quantity;
+        this.storageId = storageId;
+        this.amount = amount;
+        this.stage = stage;
+        this.attempts = attempts;
+    }
+
+    public Payment toPayment() {
+        return new Payment(orderId, amount, email);
+    }
+
+    // the same for every attempt of this entry, so the payment service charges it once
+    public String paymentKey() {
+        return "orders-payment-outbox-" + id;
+    }
+
+    public Storage toStorage() {
+        return new Storage(storageId, isbn, quantity);
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public long getOrderId() {
+        return orderId;
+    }
+
+    public void setOrderId(long orderId) {
+        this.orderId = orderId;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public void setEmail(String email) {
+        this.email = email;
+    }
+
+    public String getIsbn() {
+        return isbn;
+    }
+
+    public void setIsbn(String isbn) {
+        this.isbn = isbn;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public void setQuantity(int quantity) {
+        this.quantity = quantity;
+    }
+
+    public long getStorageId() {
+        return storageId;
+    }
+
+    public void setStorageId(long storageId) {
+        this.storageId = storageId;
+    }
+
+    public double getAmount() {
+        return amount;
+    }
+
+    public void setAmount(double amount) {
+        this.amount = amount;
+    }
+
+    public boolean isCompensating() {
+        return STAGE_COMPENSATE.equals(stage);
+    }
+
+    public String getStage() {
+        return stage;
+    }
+
+    public void setStage(String stage) {
+        this.stage = stage;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+}
@@ -2,42 +2,107 @@ package com.dynatrace.orders.repository;
 
 import com.dynatrace.orders.exception.ResourceNotFoundException;
 import com.dynatrace.orders.model.Book;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Repository;
 import org.springframework.web.client.RestTemplate;
 
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.function.UnaryOperator;
+
 @Repository
 public class BookRepository {
     @Value("${http.service.books}")
     private String bookBaseURL;
+    @Value("${orders.books.cache.max-size:10000}")
+    private long cacheMaxSize;
+    @Value("${orders.books.cache.max-staleness-ms:60000}")
+    private long cacheMaxStalenessMs;
     private RestTemplate restTemplate;
+    private RemoteCalls remoteCalls;
+    private SingleFlight<Book> lookups;
+    // near-cache of the catalog, keyed by ISBN
+    private Cache<String, Book> cache;
     private Logger logger = LoggerFactory.getLogger(BookRepository.class);
 
-    public BookRepository() {
-        restTemplate = new RestTemplate();
+    public BookRepository(RestTemplate restTemplate, DownstreamCalls downstreamCalls) {
+        this.restTemplate = restTemplate;
+        this.remoteCalls = downstreamCalls.forService("books");
+        this.lookups = downstreamCalls.singleFlight("books", "getBookByISBN", UnaryOperator.identity());
     }
 
 
+    @PostConstruct
+    public void init() {
+        cache = Caffeine.newBuilder()
+                .maximumSize(cacheMaxSize)
+                .expireAfterWrite(Duration.ofMillis(cacheMaxStalenessMs))
+                .build();
+        refreshCache();
+    }
+
+    // reload the whole catalog in the background, entries not refreshed within the staleness bound expire
+    @Scheduled(fixedDelayString = "${orders.books.cache.refresh-interval-ms:30000}", initialDelayString = "${orders.books.cache.refresh-interval-ms:30000}")
+    public void refreshCache() {
+        try {
+            Book[] books = getAllBooks();
+            if (null == books) {
+                return;
+            }
+            for (Book book : books) {
+                cache.put(book.getIsbn(), book);
+            }
+            logger.debug("Book cache refreshed with {} books", books.length);
+        } catch (RuntimeException ex) {
+            logger.warn("Could not refresh book cache: {}", ex.getMessage());
+        }
+    }
+
     public Book getBookByISBN(String isbn) {
+        return getBookByISBN(isbn, false);
+    }
+
+    // fresh = true bypasses the cache, for the paths where the price must be the current one
+    public Book getBookByISBN(String isbn, boolean fresh) {
+        if (!fresh) {
+            Book book = cache.getIfPresent(isbn);
+            if (null != book) {
+                return book;
+            }
+        }
         String urlBuilder = bookBaseURL +
                 "/find" +
                 "?isbn=" +
                 isbn;
 
-        logger.info("Checking book");
-        logger.info(urlBuilder);
-        Book book = restTemplate.getForObject(urlBuilder, Book.class);
-        if (null == book) {
-            ResourceNotFoundException ex = new ResourceNotFoundException("Book not found by isbn: " + isbn);
-            logger.error(ex.getMessage());
-            throw ex;
-        }
+        logger.info("Checking book: {}", urlBuilder);
+        Book book = lookups.execute(isbn, () -> remoteCalls.record("getBookByISBN", () -> {
+            Book found = restTemplate.getForObject(urlBuilder, Book.class);
+            if (null == found) {
+                ResourceNotFoundException ex = new ResourceNotFoundException("Book not found by isbn: " + isbn);
+                logger.error(ex.getMessage());
+                throw ex;
+            }
+            return found;
+        }));
+        cache.put(isbn, book);
         return book;
     }
 
+    public Book getCachedBook(String isbn) {
+        return cache.getIfPresent(isbn);
+    }
+
+    public void cacheBook(Book book) {
+        cache.put(book.getIsbn(), book);
+    }
+
     public Book[] getAllBooks() {
-        return restTemplate.getForObject(bookBaseURL, Book[].class);
+        return remoteCalls.record("getAllBooks", () -> restTemplate.getForObject(bookBaseURL, Book[].class));
     }
 }
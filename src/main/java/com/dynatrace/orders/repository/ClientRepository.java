@@ -9,17 +9,23 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Repository;
 import org.springframework.web.client.RestTemplate;
 
+import java.util.function.UnaryOperator;
+
 @Repository
 public class ClientRepository {
     @Value("${http.service.clients}")
     private String clientBaseURL;
     private Logger logger = LoggerFactory.getLogger(ClientRepository.class);
 
-    public ClientRepository() {
-        restTemplate = new RestTemplate();
+    public ClientRepository(RestTemplate restTemplate, DownstreamCalls downstreamCalls) {
+        this.restTemplate = restTemplate;
+        this.remoteCalls = downstreamCalls.forService("clients");
+        this.lookups = downstreamCalls.singleFlight("clients", "getClientByEmail", UnaryOperator.identity());
     }
 
     private RestTemplate restTemplate;
+    private RemoteCalls remoteCalls;
+    private SingleFlight<Client> lookups;
 
     public Client getClientByEmail(String email) {
         String urlBuilder = clientBaseURL +
@@ -27,19 +33,20 @@ public class ClientRepository {
                 "?email=" +
                 email;
 
-        logger.info("Checking client");
-        logger.info(urlBuilder);
-
-        Client client = restTemplate.getForObject(urlBuilder, Client.class);
-        if (null == client) {
-            ResourceNotFoundException ex = new ResourceNotFoundException("Client not found by email: " + email);
-            logger.error(ex.getMessage());
-            throw ex;
-        }
-        return client;
+        logger.info("Checking client: {}", urlBuilder);
+
+        return lookups.execute(email, () -> remoteCalls.record("getClientByEmail", () -> {
+            Client client = restTemplate.getForObject(urlBuilder, Client.class);
+            if (null == client) {
+                ResourceNotFoundException ex = new ResourceNotFoundException("Client not found by email: " + email);
+                logger.error(ex.getMessage());
+                throw ex;
+            }
+            return client;
+        }));
     }
 
     public Client[] getAllClients() {
-        return restTemplate.getForObject(clientBaseURL, Client[].class);
+        return remoteCalls.record("getAllClients", () -> restTemplate.getForObject(clientBaseURL, Client[].class));
     }
 }
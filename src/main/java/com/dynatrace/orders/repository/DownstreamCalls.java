@@ -0,0 +1,36 @@
+package com.dynatrace.orders.repository;
+
+import com.dynatrace.orders.config.DownstreamTimeouts;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.function.UnaryOperator;
+
+// per-service circuit breaker, bulkhead and read timeout of the clients, books, storage and payment services;
+// breakers and bulkheads are configured under resilience4j.* with the service name as instance name
+@Component
+public class DownstreamCalls {
+    private final MeterRegistry meterRegistry;
+    private final CircuitBreakerRegistry circuitBreakerRegistry;
+    private final BulkheadRegistry bulkheadRegistry;
+    private final DownstreamTimeouts timeouts;
+
+    public DownstreamCalls(MeterRegistry meterRegistry, CircuitBreakerRegistry circuitBreakerRegistry, BulkheadRegistry bulkheadRegistry,
+                           DownstreamTimeouts timeouts) {
+        this.meterRegistry = meterRegistry;
+        this.circuitBreakerRegistry = circuitBreakerRegistry;
+        this.bulkheadRegistry = bulkheadRegistry;
+        this.timeouts = timeouts;
+    }
+
+    public RemoteCalls forService(String service) {
+        return new RemoteCalls(meterRegistry, service, circuitBreakerRegistry.circuitBreaker(service),
+                bulkheadRegistry.bulkhead(service), timeouts.forService(service));
+    }
+
+    public <T> SingleFlight<T> singleFlight(String service, String operation, UnaryOperator<T> copy) {
+        return new SingleFlight<>(meterRegistry, service, operation, copy);
+    }
+}
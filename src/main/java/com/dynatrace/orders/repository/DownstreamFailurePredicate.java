@@ -0,0 +1,26 @@
+package com.dynatrace.orders.repository;
+
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import java.io.IOException;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
+
+// what counts as a failure for the circuit breakers: I/O errors, timeouts and 5xx answers.
+// A 4xx or a business rejection (book not found, payment declined) means the service is up.
+public class DownstreamFailurePredicate implements Predicate<Throwable> {
+    @Override
+    public boolean test(Throwable ex) {
+        if (ex instanceof WebClientResponseException responseException) {
+            return responseException.getRawStatusCode() >= 500;
+        }
+        return ex instanceof ResourceAccessException
+                || ex instanceof HttpServerErrorException
+                || ex instanceof WebClientRequestException
+                || ex instanceof TimeoutException
+                || ex instanceof IOException;
+    }
+}
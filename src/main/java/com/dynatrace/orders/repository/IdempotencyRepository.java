@@ -0,0 +1,55 @@
+package com.dynatrace.orders.repository;
+
+import com.dynatrace.orders.model.IdempotencyRecord;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Optional;
+
+// idempotency_keys, shared by all instances of the service; the primary key decides who runs a request
+@Repository
+public class IdempotencyRepository {
+    private JdbcTemplate jdbcTemplate;
+
+    public IdempotencyRepository(DataSource dataSource) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    // true when this caller inserted the key and must run the request
+    public boolean claim(String key, String fingerprint) {
+        return jdbcTemplate.update("INSERT INTO idempotency_keys (idempotency_key, fingerprint, created_at) VALUES (?, ?, now()) " +
+                "ON CONFLICT (idempotency_key) DO NOTHING", key, fingerprint) == 1;
+    }
+
+    // takes over a key whose first request never finished, e.g. because its instance died
+    public boolean claimAbandoned(String key, Timestamp startedBefore) {
+        return jdbcTemplate.update("UPDATE idempotency_keys SET created_at = now() " +
+                "WHERE idempotency_key = ? AND status IS NULL AND created_at < ?", key, startedBefore) == 1;
+    }
+
+    public Optional<IdempotencyRecord> find(String key) {
+        List<IdempotencyRecord> records = jdbcTemplate.query("SELECT idempotency_key, fingerprint, status, body, created_at " +
+                        "FROM idempotency_keys WHERE idempotency_key = ?",
+                (rs, rowNum) -> new IdempotencyRecord(rs.getString(1), rs.getString(2), (Integer) rs.getObject(3),
+                        rs.getString(4), rs.getTimestamp(5)),
+                key);
+        return records.stream().findFirst();
+    }
+
+    public void complete(String key, int status, String body) {
+        jdbcTemplate.update("UPDATE idempotency_keys SET status = ?, body = ?, completed_at = now() WHERE idempotency_key = ?",
+                status, body, key);
+    }
+
+    // the request failed in a way a retry may fix, the next request with the key runs again
+    public void release(String key) {
+        jdbcTemplate.update("DELETE FROM idempotency_keys WHERE idempotency_key = ? AND status IS NULL", key);
+    }
+
+    public int deleteCreatedBefore(Timestamp createdBefore) {
+        return jdbcTemplate.update("DELETE FROM idempotency_keys WHERE created_at < ?", createdBefore);
+    }
+}
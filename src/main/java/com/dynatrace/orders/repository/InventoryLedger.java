@@ -0,0 +1,167 @@
+package com.dynatrace.orders.repository;
+
+import com.dynatrace.orders.model.Storage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Per-ISBN view of the storage: the last quantity the storage service reported (getAllBooksInStorage, findByISBN,
+// sell-book and ingest-book answers, see StorageRepository and ReactiveStorageRepository) minus the books this
+// instance is buying right now.
+// A purchase that started before an answer arrived may already be in it: a refusal only counts the purchases that
+// started after the last answer, an acceptance all of them, so neither decision counts a sale twice in its favour.
+// Orders that clearly cannot be filled are refused without asking the storage service; when the view is stale or
+// the order is within orders.inventory.borderline of what is left, the storage service decides as before.
+@Component
+public class InventoryLedger {
+    private final boolean enabled;
+    private final long maxStalenessNanos;
+    private final int borderline;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Counter localRejects;
+    private final Counter localAccepts;
+    private final Counter remoteChecks;
+
+    public InventoryLedger(MeterRegistry meterRegistry,
+                           @Value("${orders.inventory.enabled:true}") boolean enabled,
+                           @Value("${orders.inventory.max-staleness-ms:10000}") long maxStalenessMs,
+                           @Value("${orders.inventory.borderline:2}") int borderline) {
+        this.enabled = enabled;
+        this.maxStalenessNanos = TimeUnit.MILLISECONDS.toNanos(maxStalenessMs);
+        this.borderline = borderline;
+        this.localRejects = decisions(meterRegistry, "LOCAL_REJECT");
+        this.localAccepts = decisions(meterRegistry, "LOCAL_ACCEPT");
+        this.remoteChecks = decisions(meterRegistry, "REMOTE");
+    }
+
+    // what the storage service reported; requestedAt (System.nanoTime) is when the call started,
+    // an answer to an older call never replaces the one of a newer call
+    public void observe(Storage storage, long requestedAt) {
+        if (null == storage || null == storage.getIsbn() || storage.getQuantity() < 0) {
+            return;
+        }
+        Observation next = new Observation(storage.getId(), storage.getQuantity(), requestedAt, System.nanoTime());
+        entry(storage.getIsbn()).observed.accumulateAndGet(next,
+                (current, update) -> null == current || update.requestedAt() >= current.requestedAt() ? update : current);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // taken before the sell-book call is sent, released once it returned
+    public Reservation reserve(String isbn, int quantity) {
+        Reservation reservation = new Reservation(isbn, quantity, System.nanoTime());
+        entry(isbn).reservations.add(reservation);
+        return reservation;
+    }
+
+    public void release(Reservation reservation) {
+        entry(reservation.isbn).reservations.remove(reservation);
+    }
+
+    // true when what is left is fresh and clearly short of the quantity: sold out, or short by more than borderline
+    public boolean clearlyInsufficient(String isbn, int quantity) {
+        if (quantity <= 0) {
+            return false;
+        }
+        Entry entry = freshEntry(isbn);
+        if (null == entry) {
+            return false;
+        }
+        Observation observed = entry.observed.get();
+        long available = observed.quantity() - entry.reservedSince(observed.observedAt());
+        if (available < quantity && (available <= 0 || quantity - available > borderline)) {
+            localRejects.increment();
+            return true;
+        }
+        return false;
+    }
+
+    // the Storage to buy from when clearly enough is left, null when the storage service has to be asked;
+    // sell-book still has the last word
+    public Storage availableStorage(String isbn, int quantity) {
+        Entry entry = freshEntry(isbn);
+        if (null == entry) {
+            remoteChecks.increment();
+            return null;
+        }
+        Observation observed = entry.observed.get();
+        long available = observed.quantity() - entry.reserved();
+        if (quantity > 0 && available - quantity < borderline) {
+            remoteChecks.increment();
+            return null;
+        }
+        localAccepts.increment();
+        return new Storage(observed.storageId(), isbn, (int) Math.max(0L, available));
+    }
+
+    private Entry freshEntry(String isbn) {
+        if (!enabled) {
+            return null;
+        }
+        Entry entry = entries.get(isbn);
+        if (null == entry) {
+            return null;
+        }
+        Observation observed = entry.observed.get();
+        if (null == observed || System.nanoTime() - observed.observedAt() > maxStalenessNanos) {
+            return null;
+        }
+        return entry;
+    }
+
+    private Entry entry(String isbn) {
+        return entries.computeIfAbsent(isbn, key -> new Entry());
+    }
+
+    private static Counter decisions(MeterRegistry meterRegistry, String outcome) {
+        return Counter.builder("orders.inventory.decisions")
+                .description("Stock checks of orders, decided on the ledger or by asking the storage service")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    private static final class Entry {
+        private final AtomicReference<Observation> observed = new AtomicReference<>();
+        // a handful at a time, the purchases of one title in flight on this instance
+        private final Set<Reservation> reservations = ConcurrentHashMap.newKeySet();
+
+        private long reserved() {
+            return reservations.stream().mapToLong(reservation -> reservation.quantity).sum();
+        }
+
+        private long reservedSince(long nanoTime) {
+            long reserved = 0;
+            for (Reservation reservation : reservations) {
+                if (reservation.startedAt - nanoTime > 0) {
+                    reserved += reservation.quantity;
+                }
+            }
+            return reserved;
+        }
+    }
+
+    // identity matters, two purchases of the same quantity are two reservations
+    public static final class Reservation {
+        private final String isbn;
+        private final int quantity;
+        private final long startedAt;
+
+        private Reservation(String isbn, int quantity, long startedAt) {
+            this.isbn = isbn;
+            this.quantity = quantity;
+            this.startedAt = startedAt;
+        }
+    }
+
+    private record Observation(long storageId, long quantity, long requestedAt, long observedAt) {
+    }
+}
@@ -1,20 +1,74 @@
 package com.dynatrace.orders.repository;
 
 import com.dynatrace.orders.model.Order;
+import com.dynatrace.orders.model.OrderView;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.jpa.repository.Temporal;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.persistence.QueryHint;
+import javax.persistence.TemporalType;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @Repository
 public interface OrderRepository extends JpaRepository<Order, Long> {
+    // entities of the read endpoints are never changed, hibernate keeps no dirty-checking snapshot of them
+    String READ_ONLY = "org.hibernate.readOnly";
+    String VIEW = "SELECT new com.dynatrace.orders.model.OrderView(o.id, o.email, o.isbn, o.quantity, o.price, " +
+            "o.completed, o.paymentStatus, o.updatedAt, o.createdAt) FROM Order o";
+
+    @QueryHints(@QueryHint(name = READ_ONLY, value = "true"))
     List<Order> findByEmail(String email);
+    @QueryHints(@QueryHint(name = READ_ONLY, value = "true"))
     List<Order> findByIsbn(String isbn);
     Order findByEmailAndIsbn(String email, String isbn);
+    List<Order> findByIsbnAndEmailIn(String isbn, Collection<String> emails);
     List<Order> findByCompleted(boolean completed);
+
+    // the same orders as plain OrderViews, for the fields= requests
+    @Query(VIEW + " ORDER BY o.email, o.createdAt")
+    List<OrderView> findAllViews();
+    @Query(VIEW + " WHERE o.email = :email")
+    List<OrderView> findViewsByEmail(@Param("email") String email);
+    @Query(VIEW + " WHERE o.isbn = :isbn")
+    List<OrderView> findViewsByIsbn(@Param("isbn") String isbn);
+
+    // keyset pagination on (email, created_at, id)
+    @Query(value = "SELECT * FROM orders ORDER BY email, created_at, id LIMIT :limit", nativeQuery = true)
+    List<Order> findFirstPage(@Param("limit") int limit);
+    @Query(value = "SELECT * FROM orders WHERE (email, created_at, id) > (:email, :createdAt, :id) ORDER BY email, created_at, id LIMIT :limit", nativeQuery = true)
+    List<Order> findPageAfter(@Param("email") String email, @Param("createdAt") @Temporal(TemporalType.TIMESTAMP) Date createdAt, @Param("id") long id, @Param("limit") int limit);
+    @Query(value = "SELECT * FROM orders WHERE email = :email ORDER BY created_at, id LIMIT :limit", nativeQuery = true)
+    List<Order> findFirstPageByEmail(@Param("email") String email, @Param("limit") int limit);
+    @Query(value = "SELECT * FROM orders WHERE email = :email AND (created_at, id) > (:createdAt, :id) ORDER BY created_at, id LIMIT :limit", nativeQuery = true)
+    List<Order> findPageByEmailAfter(@Param("email") String email, @Param("createdAt") @Temporal(TemporalType.TIMESTAMP) Date createdAt, @Param("id") long id, @Param("limit") int limit);
+
+    // the orders of one title in one transaction: the existing rows come in one query and are merged without
+    // another select each, the new ones go out in JDBC batches of hibernate.jdbc.batch_size
+    @Transactional
+    default List<Order> saveAllOfIsbn(String isbn, List<Order> orders) {
+        Map<String, Long> existing = new HashMap<>();
+        for (Order order : findByIsbnAndEmailIn(isbn, orders.stream().map(Order::getEmail).toList())) {
+            existing.put(order.getEmail(), order.getId());
+        }
+        for (Order order : orders) {
+            Long id = existing.get(order.getEmail());
+            if (null != id) {
+                order.setId(id);
+            }
+        }
+        return saveAll(orders);
+    }
+
     @Modifying
     @Transactional
     @Query(value = "TRUNCATE TABLE orders", nativeQuery = true)
@@ -0,0 +1,44 @@
+package com.dynatrace.orders.repository;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.sql.DataSource;
+
+// reads the orders table row by row through a JDBC cursor, without materializing entities or lists
+@Repository
+public class OrderStreamRepository {
+    private static final String SELECT_ORDERS = "SELECT id, email, isbn, quantity, price, completed, payment_status, updated_at, created_at FROM orders";
+
+    @Value("${orders.stream.fetch-size:500}")
+    private int fetchSize;
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate transactionTemplate;
+
+    public OrderStreamRepository(DataSource dataSource, PlatformTransactionManager transactionManager) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+    }
+
+    @PostConstruct
+    public void init() {
+        jdbcTemplate.setFetchSize(fetchSize);
+    }
+
+    // the postgres driver only uses a cursor inside a transaction, otherwise it reads the whole result set
+    public void streamAll(RowCallbackHandler rowHandler) {
+        transactionTemplate.executeWithoutResult(status ->
+                jdbcTemplate.query(SELECT_ORDERS + " ORDER BY email, created_at, id", rowHandler));
+    }
+
+    public void streamByEmail(String email, RowCallbackHandler rowHandler) {
+        transactionTemplate.executeWithoutResult(status ->
+                jdbcTemplate.query(SELECT_ORDERS + " WHERE email = ? ORDER BY created_at, id", rowHandler, email));
+    }
+}
@@ -0,0 +1,58 @@
+package com.dynatrace.orders.repository;
+
+import com.dynatrace.orders.model.PaymentOutboxEntry;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import javax.sql.DataSource;
+import java.util.List;
+
+// payment_outbox, drained by the PaymentWorker of every instance; SKIP LOCKED keeps them from claiming the same rows
+@Repository
+public class PaymentOutboxRepository {
+    private JdbcTemplate jdbcTemplate;
+
+    public PaymentOutboxRepository(DataSource dataSource) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    // joins the transaction of the caller, so the row is only there if the order is
+    public void insert(long orderId, String email, String isbn, int quantity, long storageId, double amount) {
+        jdbcTemplate.update("INSERT INTO payment_outbox (order_id, email, isbn, quantity, storage_id, amount, next_attempt_at, created_at) " +
+                "VALUES (?, ?, ?, ?, ?, ?, now(), now())", orderId, email, isbn, quantity, storageId, amount);
+    }
+
+    // takes up to batchSize due rows and hides them from other workers for leaseMs
+    public List<PaymentOutboxEntry> claim(int batchSize, long leaseMs) {
+        return jdbcTemplate.query("UPDATE payment_outbox SET attempts = attempts + 1, next_attempt_at = now() + ? * interval '1 millisecond' " +
+                        "WHERE id IN (SELECT id FROM payment_outbox WHERE next_attempt_at <= now() " +
+                        "ORDER BY next_attempt_at LIMIT ? FOR UPDATE SKIP LOCKED) " +
+                        "RETURNING id, order_id, email, isbn, quantity, storage_id, amount, stage, attempts",
+                (rs, rowNum) -> new PaymentOutboxEntry(rs.getLong(1), rs.getLong(2), rs.getString(3), rs.getString(4),
+                        rs.getInt(5), rs.getLong(6), rs.getDouble(7), rs.getString(8), rs.getInt(9)),
+                leaseMs, batchSize);
+    }
+
+    public void reschedule(long id, long delayMs, String error) {
+        jdbcTemplate.update("UPDATE payment_outbox SET next_attempt_at = now() + ? * interval '1 millisecond', last_error = ? WHERE id = ?",
+                delayMs, truncate(error), id);
+    }
+
+    // the payment will not be made, from now on the row stands for the books to give back
+    public void toCompensation(long id, String error) {
+        jdbcTemplate.update("UPDATE payment_outbox SET stage = 'COMPENSATE', last_error = ? WHERE id = ?", truncate(error), id);
+    }
+
+    public void delete(long id) {
+        jdbcTemplate.update("DELETE FROM payment_outbox WHERE id = ?", id);
+    }
+
+    public long countPending() {
+        Long count = jdbcTemplate.queryForObject("SELECT count(*) FROM payment_outbox", Long.class);
+        return null == count ? 0L : count;
+    }
+
+    private static String truncate(String error) {
+        return null == error || error.length() <= 1000 ? error : error.substring(0, 1000);
+    }
+}
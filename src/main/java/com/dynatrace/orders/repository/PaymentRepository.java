@@ -5,6 +5,8 @@ import com.dynatrace.orders.model.Payment;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
 import org.springframework.lang.NonNull;
 import org.springframework.stereotype.Repository;
 import org.springframework.web.client.HttpClientErrorException;
@@ -12,33 +14,45 @@ import org.springframework.web.client.RestTemplate;
 
 @Repository
 public class PaymentRepository {
+    static final String IDEMPOTENCY_KEY = "Idempotency-Key";
     @Value("${http.service.payment}")
     private String paymentBaseURL;
     private RestTemplate restTemplate;
+    private RemoteCalls remoteCalls;
     private Logger logger = LoggerFactory.getLogger(PaymentRepository.class);
 
-    public PaymentRepository() {
-        restTemplate = new RestTemplate();
+    public PaymentRepository(RestTemplate restTemplate, DownstreamCalls downstreamCalls) {
+        this.restTemplate = restTemplate;
+        this.remoteCalls = downstreamCalls.forService("payment");
     }
 
-
-
     public Payment submitPayment(@NonNull Payment payment) {
+        return submitPayment(payment, null);
+    }
+
+    // a retry with the same idempotency key gets the answer of the first attempt instead of a second charge
+    public Payment submitPayment(@NonNull Payment payment, String idempotencyKey) {
         String urlBuilder = paymentBaseURL;
-        Payment paymentRes = null;
-        logger.info("Making Payment");
-        logger.info(urlBuilder);
-        try {
-            paymentRes = restTemplate.postForObject(urlBuilder, payment, Payment.class);
-        } catch (HttpClientErrorException exception) {
-            PaymentException ex = new PaymentException("Payment rejected: " + exception.getMessage());
-            logger.error(ex.getMessage());
-            throw ex;
-        }
-        if (paymentRes == null) {
-            logger.error("Purchase filed - response was null");
-            throw new PaymentException("Purchase failed");
+        logger.info("Making Payment: {}", urlBuilder);
+        HttpHeaders headers = new HttpHeaders();
+        if (null != idempotencyKey) {
+            headers.set(IDEMPOTENCY_KEY, idempotencyKey);
         }
-        return paymentRes;
+        HttpEntity<Payment> request = new HttpEntity<>(payment, headers);
+        return remoteCalls.record("submitPayment", () -> {
+            Payment paymentRes;
+            try {
+                paymentRes = restTemplate.postForObject(urlBuilder, request, Payment.class);
+            } catch (HttpClientErrorException exception) {
+                PaymentException ex = new PaymentException("Payment rejected: " + exception.getMessage());
+                logger.error(ex.getMessage());
+                throw ex;
+            }
+            if (paymentRes == null) {
+                logger.error("Purchase filed - response was null");
+                throw new PaymentException("Purchase failed");
+            }
+            return paymentRes;
+        });
     }
 }
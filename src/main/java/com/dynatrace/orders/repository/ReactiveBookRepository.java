@@ -0,0 +1,58 @@
+package com.dynatrace.orders.repository;
+
+import com.dynatrace.orders.exception.ResourceNotFoundException;
+import com.dynatrace.orders.model.Book;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+import java.util.function.UnaryOperator;
+
+@Repository
+@ConditionalOnProperty(name = "http.client.mode", havingValue = "reactive")
+public class ReactiveBookRepository {
+    @Value("${http.service.books}")
+    private String bookBaseURL;
+    private WebClient webClient;
+    private RemoteCalls remoteCalls;
+    private SingleFlight<Book> lookups;
+    // shares the near-cache of the blocking repository
+    private BookRepository bookRepository;
+    private Logger logger = LoggerFactory.getLogger(ReactiveBookRepository.class);
+
+    public ReactiveBookRepository(WebClient webClient, BookRepository bookRepository, DownstreamCalls downstreamCalls) {
+        this.webClient = webClient;
+        this.bookRepository = bookRepository;
+        this.remoteCalls = downstreamCalls.forService("books");
+        this.lookups = downstreamCalls.singleFlight("books", "getBookByISBN", UnaryOperator.identity());
+    }
+
+    public Mono<Book> getBookByISBN(String isbn, boolean fresh) {
+        if (!fresh) {
+            Book book = bookRepository.getCachedBook(isbn);
+            if (null != book) {
+                return Mono.just(book);
+            }
+        }
+        String urlBuilder = bookBaseURL +
+                "/find" +
+                "?isbn=" +
+                isbn;
+
+        logger.info("Checking book: {}", urlBuilder);
+        return lookups.execute(isbn, remoteCalls.record("getBookByISBN", webClient.get()
+                .uri(urlBuilder)
+                .retrieve()
+                .bodyToMono(Book.class)
+                .switchIfEmpty(Mono.error(() -> {
+                    ResourceNotFoundException ex = new ResourceNotFoundException("Book not found by isbn: " + isbn);
+                    logger.error(ex.getMessage());
+                    return ex;
+                }))))
+                .doOnNext(bookRepository::cacheBook);
+    }
+}
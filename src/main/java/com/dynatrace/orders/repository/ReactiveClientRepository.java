@@ -0,0 +1,48 @@
+package com.dynatrace.orders.repository;
+
+import com.dynatrace.orders.exception.ResourceNotFoundException;
+import com.dynatrace.orders.model.Client;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+import java.util.function.UnaryOperator;
+
+@Repository
+@ConditionalOnProperty(name = "http.client.mode", havingValue = "reactive")
+public class ReactiveClientRepository {
+    @Value("${http.service.clients}")
+    private String clientBaseURL;
+    private WebClient webClient;
+    private RemoteCalls remoteCalls;
+    private SingleFlight<Client> lookups;
+    private Logger logger = LoggerFactory.getLogger(ReactiveClientRepository.class);
+
+    public ReactiveClientRepository(WebClient webClient, DownstreamCalls downstreamCalls) {
+        this.webClient = webClient;
+        this.remoteCalls = downstreamCalls.forService("clients");
+        this.lookups = downstreamCalls.singleFlight("clients", "getClientByEmail", UnaryOperator.identity());
+    }
+
+    public Mono<Client> getClientByEmail(String email) {
+        String urlBuilder = clientBaseURL +
+                "/find" +
+                "?email=" +
+                email;
+
+        logger.info("Checking client: {}", urlBuilder);
+        return lookups.execute(email, remoteCalls.record("getClientByEmail", webClient.get()
+                .uri(urlBuilder)
+                .retrieve()
+                .bodyToMono(Client.class)
+                .switchIfEmpty(Mono.error(() -> {
+                    ResourceNotFoundException ex = new ResourceNotFoundException("Client not found by email: " + email);
+                    logger.error(ex.getMessage());
+                    return ex;
+                }))));
+    }
+}
@@ -0,0 +1,47 @@
+package com.dynatrace.orders.repository;
+
+import com.dynatrace.orders.exception.PaymentException;
+import com.dynatrace.orders.model.Payment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.lang.NonNull;
+import org.springframework.stereotype.Repository;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+@Repository
+@ConditionalOnProperty(name = "http.client.mode", havingValue = "reactive")
+public class ReactivePaymentRepository {
+    @Value("${http.service.payment}")
+    private String paymentBaseURL;
+    private WebClient webClient;
+    private RemoteCalls remoteCalls;
+    private Logger logger = LoggerFactory.getLogger(ReactivePaymentRepository.class);
+
+    public ReactivePaymentRepository(WebClient webClient, DownstreamCalls downstreamCalls) {
+        this.webClient = webClient;
+        this.remoteCalls = downstreamCalls.forService("payment");
+    }
+
+    public Mono<Payment> submitPayment(@NonNull Payment payment) {
+        String urlBuilder = paymentBaseURL;
+        logger.info("Making Payment: {}", urlBuilder);
+        return remoteCalls.record("submitPayment", webClient.post()
+                .uri(urlBuilder)
+                .bodyValue(payment)
+                .retrieve()
+                .onStatus(HttpStatus::is4xxClientError, response -> response.createException().map(exception -> {
+                    PaymentException ex = new PaymentException("Payment rejected: " + exception.getMessage());
+                    logger.error(ex.getMessage());
+                    return ex;
+                }))
+                .bodyToMono(Payment.class)
+                .switchIfEmpty(Mono.error(() -> {
+                    logger.error("Purchase filed - response was null");
+                    return new PaymentException("Purchase failed");
+                })));
+    }
+}
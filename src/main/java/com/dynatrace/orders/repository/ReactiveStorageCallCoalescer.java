@@ -0,0 +1,144 @@
+package com.dynatrace.orders.repository;
+
+import com.dynatrace.orders.exception.PurchaseForbiddenException;
+import com.dynatrace.orders.model.Storage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+// StorageCallCoalescer for the reactive client: the same batches, but nobody blocks. The batch is sent on its own
+// subscription once window-ms passed or max-batch calls joined, so an order cancelled meanwhile does not take the
+// call of the others with it; its own quantity is left out of the call. Created by ReactiveStorageRepository.
+public class ReactiveStorageCallCoalescer {
+    private final Function<Storage, Mono<Storage>> call;
+    private final long windowMs;
+    private final int maxBatch;
+    private final Map<String, Batch> open = new HashMap<>();
+    // calls sent and not answered yet, per ISBN; guarded by open
+    private final Map<String, Integer> inFlight = new HashMap<>();
+    private final DistributionSummary batchSizes;
+    private final Counter fallbacks;
+
+    public ReactiveStorageCallCoalescer(MeterRegistry meterRegistry, String operation, Function<Storage, Mono<Storage>> call, long windowMs, int maxBatch) {
+        this.call = call;
+        this.windowMs = windowMs;
+        this.maxBatch = maxBatch;
+        this.batchSizes = DistributionSummary.builder("orders.storage.coalesced.batch.size")
+                .description("Orders sent to the storage in one call")
+                .tag("operation", operation)
+                .register(meterRegistry);
+        this.fallbacks = Counter.builder("orders.storage.coalesced.fallbacks")
+                .description("Orders sent on their own after the storage refused their batch")
+                .tag("operation", operation)
+                .register(meterRegistry);
+    }
+
+    public Mono<Storage> execute(Storage storage) {
+        if (windowMs <= 0 || maxBatch <= 1) {
+            return call.apply(storage);
+        }
+        return Mono.defer(() -> {
+            Pending pending = new Pending(storage, new CompletableFuture<>());
+            Batch batch;
+            boolean leader;
+            boolean contended;
+            synchronized (open) {
+                batch = open.get(storage.getIsbn());
+                leader = null == batch;
+                if (leader) {
+                    batch = new Batch();
+                    open.put(storage.getIsbn(), batch);
+                }
+                batch.calls.add(pending);
+                if (batch.calls.size() >= maxBatch) {
+                    open.remove(storage.getIsbn());
+                    batch.full.complete(null);
+                }
+                contended = inFlight.containsKey(storage.getIsbn());
+            }
+            if (leader) {
+                Batch leading = batch;
+                Mono<Void> window = contended
+                        ? Mono.delay(Duration.ofMillis(windowMs)).then().or(Mono.fromFuture(leading.full))
+                        : Mono.empty();
+                window.then(Mono.defer(() -> send(storage.getIsbn(), leading)))
+                        .onErrorResume(ex -> Mono.empty())
+                        .subscribe();
+            }
+            // a null answer tells the caller to try on its own
+            return Mono.fromFuture(pending.result())
+                    .switchIfEmpty(Mono.defer(() -> {
+                        fallbacks.increment();
+                        return call.apply(storage);
+                    }))
+                    .doOnCancel(() -> pending.result().cancel(false));
+        });
+    }
+
+    // completes every call of the batch, whatever the call ends with
+    private Mono<Void> send(String isbn, Batch batch) {
+        List<Pending> calls;
+        synchronized (open) {
+            open.remove(isbn, batch);
+            calls = batch.calls.stream().filter(pending -> !pending.result().isDone()).toList();
+            if (calls.isEmpty()) {
+                return Mono.empty();
+            }
+            inFlight.merge(isbn, 1, Integer::sum);
+        }
+        batchSizes.record(calls.size());
+        Mono<Void> sent;
+        if (calls.size() == 1) {
+            Pending single = calls.get(0);
+            sent = Mono.defer(() -> call.apply(single.storage()))
+                    .doOnNext(result -> single.result().complete(result))
+                    .doOnError(ex -> single.result().completeExceptionally(ex))
+                    .then();
+        } else {
+            Storage first = calls.get(0).storage();
+            int quantity = 0;
+            for (Pending pending : calls) {
+                quantity += pending.storage().getQuantity();
+            }
+            Storage sum = new Storage(first.getId(), first.getIsbn(), quantity);
+            sent = Mono.defer(() -> call.apply(sum))
+                    // a copy each, the orders must not share a mutable Storage
+                    .doOnNext(result -> calls.forEach(pending -> pending.result()
+                            .complete(new Storage(result.getId(), result.getIsbn(), result.getQuantity()))))
+                    .doOnError(ex -> calls.forEach(pending -> {
+                        if (ex instanceof PurchaseForbiddenException) {
+                            pending.result().complete(null);
+                        } else {
+                            // the same failure a call of their own would have run into
+                            pending.result().completeExceptionally(ex);
+                        }
+                    }))
+                    .then();
+        }
+        return sent.doFinally(signal -> {
+            synchronized (open) {
+                inFlight.computeIfPresent(isbn, (key, count) -> count > 1 ? count - 1 : null);
+            }
+            // an empty answer or a cancelled call still lets every order go on
+            calls.forEach(pending -> pending.result().completeExceptionally(
+                    new IllegalStateException("The storage call for ISBN " + isbn + " ended without an answer")));
+        });
+    }
+
+    private static final class Batch {
+        private final List<Pending> calls = new ArrayList<>();
+        private final CompletableFuture<Void> full = new CompletableFuture<>();
+    }
+
+    private record Pending(Storage storage, CompletableFuture<Storage> result) {
+    }
+}
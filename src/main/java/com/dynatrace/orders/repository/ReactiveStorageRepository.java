@@ -0,0 +1,105 @@
+package com.dynatrace.orders.repository;
+
+import com.dynatrace.orders.exception.PurchaseForbiddenException;
+import com.dynatrace.orders.exception.ResourceNotFoundException;
+import com.dynatrace.orders.model.Storage;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.lang.NonNull;
+import org.springframework.stereotype.Repository;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+@Repository
+@ConditionalOnProperty(name = "http.client.mode", havingValue = "reactive")
+public class ReactiveStorageRepository {
+    @Value("${http.service.storage}")
+    private String storageBaseURL;
+    private WebClient webClient;
+    private RemoteCalls remoteCalls;
+    private SingleFlight<Storage> lookups;
+    // concurrent orders of one title share a sell-book/ingest-book call, like in StorageRepository
+    private ReactiveStorageCallCoalescer sellCalls;
+    private ReactiveStorageCallCoalescer ingestCalls;
+    // the same ledger as StorageRepository, kept up to date with the answers of this client too
+    private InventoryLedger inventoryLedger;
+    private Logger logger = LoggerFactory.getLogger(ReactiveStorageRepository.class);
+
+    public ReactiveStorageRepository(WebClient webClient, DownstreamCalls downstreamCalls, MeterRegistry meterRegistry, InventoryLedger inventoryLedger,
+                                     @Value("${orders.storage.coalesce.window-ms:2}") long coalesceWindowMs,
+                                     @Value("${orders.storage.coalesce.max-batch:50}") int coalesceMaxBatch) {
+        this.webClient = webClient;
+        this.inventoryLedger = inventoryLedger;
+        this.remoteCalls = downstreamCalls.forService("storage");
+        this.lookups = downstreamCalls.singleFlight("storage", "getStorageByISBN", StorageRepository::copy);
+        this.sellCalls = new ReactiveStorageCallCoalescer(meterRegistry, "buyBook", this::sell, coalesceWindowMs, coalesceMaxBatch);
+        this.ingestCalls = new ReactiveStorageCallCoalescer(meterRegistry, "returnBook", this::ingest, coalesceWindowMs, coalesceMaxBatch);
+    }
+
+    // the books count as taken in the ledger while the call is in flight, also when it is cancelled
+    public Mono<Storage> buyBook(@NonNull Storage storage) {
+        return Mono.using(() -> inventoryLedger.reserve(storage.getIsbn(), storage.getQuantity()),
+                reservation -> sellCalls.execute(storage),
+                inventoryLedger::release);
+    }
+
+    public Mono<Storage> returnBook(@NonNull Storage storage) {
+        return ingestCalls.execute(storage);
+    }
+
+    private Mono<Storage> sell(Storage storage) {
+        String urlBuilder = storageBaseURL +
+                "/sell-book";
+        logger.info("Taking from storage: {}", urlBuilder);
+        return remoteCalls.record("buyBook", post(urlBuilder, storage, "Purchase was rejected, ISBN: "));
+    }
+
+    private Mono<Storage> ingest(Storage storage) {
+        String urlBuilder = storageBaseURL +
+                "/ingest-book";
+        logger.info("Returning to storage: {}", urlBuilder);
+        return remoteCalls.record("returnBook", post(urlBuilder, storage, "Return was rejected, ISBN: "));
+    }
+
+    public Mono<Storage> getStorageByISBN(String isbn) {
+        String urlBuilder = storageBaseURL +
+                "/findByISBN" +
+                "?isbn=" +
+                isbn;
+        logger.info("Checking in storage: {}", urlBuilder);
+        return lookups.execute(isbn, remoteCalls.record("getStorageByISBN", Mono.defer(() -> {
+            long requestedAt = System.nanoTime();
+            return webClient.get()
+                    .uri(urlBuilder)
+                    .retrieve()
+                    .bodyToMono(Storage.class)
+                    .switchIfEmpty(Mono.error(() -> {
+                        ResourceNotFoundException ex = new ResourceNotFoundException("Book in Storage is not found by isbn: " + isbn);
+                        logger.error(ex.getMessage());
+                        return ex;
+                    }))
+                    .doOnNext(found -> inventoryLedger.observe(found, requestedAt));
+        })));
+    }
+
+    private Mono<Storage> post(String url, Storage storage, String rejectMessage) {
+        return Mono.defer(() -> {
+            long requestedAt = System.nanoTime();
+            return webClient.post()
+                    .uri(url)
+                    .bodyValue(storage)
+                    .retrieve()
+                    .bodyToMono(Storage.class)
+                    .filter(storageNew -> storageNew.getQuantity() >= 0)
+                    .switchIfEmpty(Mono.error(() -> {
+                        PurchaseForbiddenException ex = new PurchaseForbiddenException(rejectMessage + storage.getIsbn());
+                        logger.error(ex.getMessage());
+                        return ex;
+                    }))
+                    .doOnNext(storageNew -> inventoryLedger.observe(storageNew, requestedAt));
+        });
+    }
+}
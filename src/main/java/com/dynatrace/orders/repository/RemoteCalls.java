@@ -0,0 +1,109 @@
+package com.dynatrace.orders.repository;
+
+import com.dynatrace.orders.exception.ServiceUnavailableException;
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.reactor.bulkhead.operator.BulkheadOperator;
+import io.github.resilience4j.reactor.circuitbreaker.operator.CircuitBreakerOperator;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientResponseException;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+// Every call to one downstream service goes through here: a circuit breaker that fails fast while the service
+// is down, a bulkhead that caps the threads waiting on it, and a timer
+// orders.downstream.calls{service, operation, outcome, exception}. Created by DownstreamCalls.
+public class RemoteCalls {
+    private static final String NAME = "orders.downstream.calls";
+    private final MeterRegistry meterRegistry;
+    private final String service;
+    private final CircuitBreaker circuitBreaker;
+    private final Bulkhead bulkhead;
+    // the blocking clients time out on the socket, see HttpClientConfig; the reactive calls here
+    private final Duration timeout;
+
+    public RemoteCalls(MeterRegistry meterRegistry, String service, CircuitBreaker circuitBreaker, Bulkhead bulkhead, Duration timeout) {
+        this.meterRegistry = meterRegistry;
+        this.service = service;
+        this.circuitBreaker = circuitBreaker;
+        this.bulkhead = bulkhead;
+        this.timeout = timeout;
+    }
+
+    public <T> T record(String operation, Supplier<T> call) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        try {
+            T result = circuitBreaker.executeSupplier(Bulkhead.decorateSupplier(bulkhead, call));
+            sample.stop(timer(operation, "SUCCESS", "none"));
+            return result;
+        } catch (RuntimeException ex) {
+            sample.stop(timer(operation, outcome(ex), ex.getClass().getSimpleName()));
+            throw rejectedOr(ex);
+        }
+    }
+
+    // the timer starts on subscription, not when the Mono is assembled
+    public <T> Mono<T> record(String operation, Mono<T> call) {
+        return Mono.defer(() -> {
+            Timer.Sample sample = Timer.start(meterRegistry);
+            return call
+                    .timeout(timeout)
+                    .transformDeferred(BulkheadOperator.of(bulkhead))
+                    .transformDeferred(CircuitBreakerOperator.of(circuitBreaker))
+                    .doOnSuccess(result -> sample.stop(timer(operation, "SUCCESS", "none")))
+                    .doOnError(ex -> sample.stop(timer(operation, outcome(ex), ex.getClass().getSimpleName())))
+                    .doOnCancel(() -> sample.stop(timer(operation, "CANCELLED", "none")))
+                    .onErrorMap(RuntimeException.class, this::rejectedOr);
+        });
+    }
+
+    private RuntimeException rejectedOr(RuntimeException ex) {
+        if (ex instanceof CallNotPermittedException) {
+            return new ServiceUnavailableException("The " + service + " service is unavailable, try again later");
+        } else if (ex instanceof BulkheadFullException) {
+            return new ServiceUnavailableException("Too many calls to the " + service + " service in progress, try again later");
+        }
+        return ex;
+    }
+
+    private Timer timer(String operation, String outcome, String exception) {
+        return Timer.builder(NAME)
+                .description("Calls to the downstream services")
+                .tag("service", service)
+                .tag("operation", operation)
+                .tag("outcome", outcome)
+                .tag("exception", exception)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    // same outcome names as http.client.requests; our own rejections (e.g. a sell-book that leaves
+    // a negative quantity) are counted by the status of the exception they raise
+    static String outcome(Throwable ex) {
+        int status;
+        if (ex instanceof CallNotPermittedException || ex instanceof BulkheadFullException) {
+            return "REJECTED";
+        } else if (ex instanceof RestClientResponseException responseException) {
+            status = responseException.getRawStatusCode();
+        } else if (ex instanceof WebClientResponseException responseException) {
+            status = responseException.getRawStatusCode();
+        } else if (ex instanceof ResponseStatusException statusException) {
+            status = statusException.getRawStatusCode();
+        } else if (ex instanceof ResourceAccessException || ex instanceof WebClientRequestException || ex instanceof TimeoutException) {
+            return "IO_ERROR";
+        } else {
+            return "UNKNOWN";
+        }
+        return status >= 500 ? "SERVER_ERROR" : status >= 400 ? "CLIENT_ERROR" : "UNKNOWN";
+    }
+}
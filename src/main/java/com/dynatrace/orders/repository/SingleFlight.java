@@ -0,0 +1,104 @@
+package com.dynatrace.orders.repository;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+// Concurrent lookups of the same key share one downstream call: the first caller makes it, the others wait for its
+// answer instead of sending their own. Nothing is kept once the call is done, so no caller gets an answer older than
+// the call in flight when it arrived. Collapsed lookups are counted in orders.downstream.collapsed{service, operation}.
+// Created by DownstreamCalls.
+public class SingleFlight<T> {
+    private final ConcurrentMap<String, CompletableFuture<T>> inFlight = new ConcurrentHashMap<>();
+    // every waiter gets its own copy of the answer when the callers may change it
+    private final UnaryOperator<T> copy;
+    private final Counter collapsed;
+
+    public SingleFlight(MeterRegistry meterRegistry, String service, String operation, UnaryOperator<T> copy) {
+        this.copy = copy;
+        this.collapsed = Counter.builder("orders.downstream.collapsed")
+                .description("Lookups answered by a call already in flight for the same key")
+                .tag("service", service)
+                .tag("operation", operation)
+                .register(meterRegistry);
+    }
+
+    public T execute(String key, Supplier<T> call) {
+        CompletableFuture<T> mine = new CompletableFuture<>();
+        CompletableFuture<T> current = inFlight.putIfAbsent(key, mine);
+        if (null != current) {
+            collapsed.increment();
+            try {
+                return copyOf(current.join());
+            } catch (CompletionException ex) {
+                throw unchecked(ex.getCause());
+            }
+        }
+        try {
+            T result = call.get();
+            // the waiters copy a snapshot, the caller of the call may change the result it gets
+            mine.complete(copyOf(result));
+            return result;
+        } catch (Throwable ex) {
+            mine.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    // the call is only subscribed to by the first caller
+    public Mono<T> execute(String key, Mono<T> call) {
+        return Mono.defer(() -> {
+            CompletableFuture<T> mine = new CompletableFuture<>();
+            CompletableFuture<T> current = inFlight.putIfAbsent(key, mine);
+            if (null != current) {
+                collapsed.increment();
+                // a dependent future, so a waiter that gives up does not cancel the call of the others
+                return Mono.fromFuture(current.thenApply(this::copyOf))
+                        // the first caller was cancelled before it got an answer, look it up again
+                        .onErrorResume(SingleFlight::isAbandoned, ex -> execute(key, call));
+            }
+            return call
+                    .doOnSuccess(result -> mine.complete(copyOf(result)))
+                    .doOnError(mine::completeExceptionally)
+                    .doFinally(signal -> {
+                        inFlight.remove(key, mine);
+                        mine.completeExceptionally(new Abandoned());
+                    });
+        });
+    }
+
+    private T copyOf(T value) {
+        return null == value ? null : copy.apply(value);
+    }
+
+    private static RuntimeException unchecked(Throwable ex) {
+        if (ex instanceof RuntimeException runtimeException) {
+            return runtimeException;
+        }
+        if (ex instanceof Error error) {
+            throw error;
+        }
+        return new IllegalStateException(ex);
+    }
+
+    private static boolean isAbandoned(Throwable ex) {
+        return ex instanceof Abandoned || ex.getCause() instanceof Abandoned;
+    }
+
+    private static class Abandoned extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Abandoned() {
+            super(null, null, false, false);
+        }
+    }
+}
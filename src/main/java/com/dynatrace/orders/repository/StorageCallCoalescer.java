@@ -0,0 +1,146 @@
+package com.dynatrace.orders.repository;
+
+import com.dynatrace.orders.exception.PurchaseForbiddenException;
+import com.dynatrace.orders.model.Storage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+// Collects concurrent sell/ingest calls for the same ISBN and sends them as one call with the summed quantity.
+// A call with none in flight for its ISBN goes out right away. Otherwise the first caller of a batch leads it:
+// it waits up to window-ms, or until max-batch calls joined, makes the call and hands the answer to the others.
+// If the storage refuses the sum, every order of the batch tries on its own, so one order too many does not fail
+// the rest. Created by StorageRepository.
+public class StorageCallCoalescer {
+    private final Function<Storage, Storage> call;
+    private final long windowMs;
+    private final int maxBatch;
+    private final Map<String, Batch> open = new HashMap<>();
+    // calls sent and not answered yet, per ISBN; guarded by open
+    private final Map<String, Integer> inFlight = new HashMap<>();
+    private final DistributionSummary batchSizes;
+    private final Counter fallbacks;
+
+    public StorageCallCoalescer(MeterRegistry meterRegistry, String operation, Function<Storage, Storage> call, long windowMs, int maxBatch) {
+        this.call = call;
+        this.windowMs = windowMs;
+        this.maxBatch = maxBatch;
+        this.batchSizes = DistributionSummary.builder("orders.storage.coalesced.batch.size")
+                .description("Orders sent to the storage in one call")
+                .tag("operation", operation)
+                .register(meterRegistry);
+        this.fallbacks = Counter.builder("orders.storage.coalesced.fallbacks")
+                .description("Orders sent on their own after the storage refused their batch")
+                .tag("operation", operation)
+                .register(meterRegistry);
+    }
+
+    public Storage execute(Storage storage) {
+        if (windowMs <= 0 || maxBatch <= 1) {
+            return call.apply(storage);
+        }
+        Pending pending = new Pending(storage, new CompletableFuture<>());
+        Batch batch;
+        boolean leader;
+        boolean contended;
+        synchronized (open) {
+            batch = open.get(storage.getIsbn());
+            leader = null == batch;
+            if (leader) {
+                batch = new Batch();
+                open.put(storage.getIsbn(), batch);
+            }
+            batch.calls.add(pending);
+            if (batch.calls.size() >= maxBatch) {
+                open.remove(storage.getIsbn());
+                batch.full.countDown();
+            }
+            contended = inFlight.containsKey(storage.getIsbn());
+        }
+        if (leader) {
+            if (contended) {
+                try {
+                    batch.full.await(windowMs, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            List<Pending> calls;
+            synchronized (open) {
+                open.remove(storage.getIsbn(), batch);
+                calls = List.copyOf(batch.calls);
+                inFlight.merge(storage.getIsbn(), 1, Integer::sum);
+            }
+            try {
+                send(calls);
+            } finally {
+                synchronized (open) {
+                    inFlight.computeIfPresent(storage.getIsbn(), (isbn, count) -> count > 1 ? count - 1 : null);
+                }
+            }
+        }
+        Storage result;
+        try {
+            result = pending.result().join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw ex.getCause() instanceof RuntimeException runtimeException ? runtimeException : ex;
+        }
+        if (null == result) {
+            fallbacks.increment();
+            return call.apply(storage);
+        }
+        return result;
+    }
+
+    // completes every call of the batch; null tells the caller to try on its own
+    private void send(List<Pending> calls) {
+        batchSizes.record(calls.size());
+        if (calls.size() == 1) {
+            Pending single = calls.get(0);
+            try {
+                single.result().complete(call.apply(single.storage()));
+            } catch (Throwable ex) {
+                single.result().completeExceptionally(ex);
+            }
+            return;
+        }
+        Storage first = calls.get(0).storage();
+        int quantity = 0;
+        for (Pending pending : calls) {
+            quantity += pending.storage().getQuantity();
+        }
+        try {
+            Storage result = call.apply(new Storage(first.getId(), first.getIsbn(), quantity));
+            for (Pending pending : calls) {
+                // a copy each, the orders must not share a mutable Storage
+                pending.result().complete(new Storage(result.getId(), result.getIsbn(), result.getQuantity()));
+            }
+        } catch (PurchaseForbiddenException ex) {
+            calls.forEach(pending -> pending.result().complete(null));
+        } catch (Throwable ex) {
+            // the same failure a call of their own would have run into
+            calls.forEach(pending -> pending.result().completeExceptionally(ex));
+        }
+    }
+
+    private static final class Batch {
+        private final List<Pending> calls = new ArrayList<>();
+        private final CountDownLatch full = new CountDownLatch(1);
+    }
+
+    private record Pending(Storage storage, CompletableFuture<Storage> result) {
+    }
+}
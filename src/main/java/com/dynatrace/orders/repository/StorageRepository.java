@@ -3,10 +3,12 @@ package com.dynatrace.orders.repository;
 import com.dynatrace.orders.exception.PurchaseForbiddenException;
 import com.dynatrace.orders.exception.ResourceNotFoundException;
 import com.dynatrace.orders.model.Storage;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.lang.NonNull;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Repository;
 import org.springframework.web.client.RestTemplate;
 
@@ -16,40 +18,73 @@ public class StorageRepository {
     private String storageBaseURL;
 
     private RestTemplate restTemplate;
+    private RemoteCalls remoteCalls;
+    private SingleFlight<Storage> lookups;
+    // concurrent orders of one title share a sell-book/ingest-book call, see orders.storage.coalesce.*
+    private StorageCallCoalescer sellCalls;
+    private StorageCallCoalescer ingestCalls;
+    // kept up to date with every answer of the storage service
+    private InventoryLedger inventoryLedger;
     private Logger logger = LoggerFactory.getLogger(StorageRepository.class);
 
-    public StorageRepository() {
-        restTemplate = new RestTemplate();
+    public StorageRepository(RestTemplate restTemplate, DownstreamCalls downstreamCalls, MeterRegistry meterRegistry, InventoryLedger inventoryLedger,
+                             @Value("${orders.storage.coalesce.window-ms:2}") long coalesceWindowMs,
+                             @Value("${orders.storage.coalesce.max-batch:50}") int coalesceMaxBatch) {
+        this.restTemplate = restTemplate;
+        this.inventoryLedger = inventoryLedger;
+        this.remoteCalls = downstreamCalls.forService("storage");
+        // the order flows change the quantity of the Storage they get, every waiter needs its own
+        this.lookups = downstreamCalls.singleFlight("storage", "getStorageByISBN", StorageRepository::copy);
+        this.sellCalls = new StorageCallCoalescer(meterRegistry, "buyBook", this::sell, coalesceWindowMs, coalesceMaxBatch);
+        this.ingestCalls = new StorageCallCoalescer(meterRegistry, "returnBook", this::ingest, coalesceWindowMs, coalesceMaxBatch);
     }
 
+    // the books count as taken in the ledger while the call is in flight
+    public Storage buyBook(@NonNull Storage storage) {
+        InventoryLedger.Reservation reservation = inventoryLedger.reserve(storage.getIsbn(), storage.getQuantity());
+        try {
+            return sellCalls.execute(storage);
+        } finally {
+            inventoryLedger.release(reservation);
+        }
+    }
 
+    public Storage returnBook(@NonNull Storage storage) {
+        return ingestCalls.execute(storage);
+    }
 
-    public Storage buyBook(@NonNull Storage storage) {
+    private Storage sell(Storage storage) {
         String urlBuilder = storageBaseURL +
                 "/sell-book";
-        logger.info("Taking from storage");
-        logger.info(urlBuilder);
-        Storage storageNew = restTemplate.postForObject(urlBuilder, storage, Storage.class);
-        if (storageNew == null || storageNew.getQuantity() < 0) {
-            PurchaseForbiddenException ex = new PurchaseForbiddenException("Purchase was rejected, ISBN: " + storage.getIsbn());
-            logger.error(ex.getMessage());
-            throw ex;
-        }
-        return storageNew;
+        logger.info("Taking from storage: {}", urlBuilder);
+        long requestedAt = System.nanoTime();
+        return remoteCalls.record("buyBook", () -> {
+            Storage storageNew = restTemplate.postForObject(urlBuilder, storage, Storage.class);
+            if (storageNew == null || storageNew.getQuantity() < 0) {
+                PurchaseForbiddenException ex = new PurchaseForbiddenException("Purchase was rejected, ISBN: " + storage.getIsbn());
+                logger.error(ex.getMessage());
+                throw ex;
+            }
+            inventoryLedger.observe(storageNew, requestedAt);
+            return storageNew;
+        });
     }
 
-    public Storage returnBook(@NonNull Storage storage) {
+    private Storage ingest(Storage storage) {
         String urlBuilder = storageBaseURL +
                 "/ingest-book";
-        logger.info("Returning to storage");
-        logger.info(urlBuilder);
-        Storage storageNew = restTemplate.postForObject(urlBuilder, storage, Storage.class);
-        if (storageNew == null || storageNew.getQuantity() < 0) {
-            PurchaseForbiddenException ex = new PurchaseForbiddenException("Return was rejected, ISBN: " + storage.getIsbn());
-            logger.error(ex.getMessage());
-            throw ex;
-        }
-        return storageNew;
+        logger.info("Returning to storage: {}", urlBuilder);
+        long requestedAt = System.nanoTime();
+        return remoteCalls.record("returnBook", () -> {
+            Storage storageNew = restTemplate.postForObject(urlBuilder, storage, Storage.class);
+            if (storageNew == null || storageNew.getQuantity() < 0) {
+                PurchaseForbiddenException ex = new PurchaseForbiddenException("Return was rejected, ISBN: " + storage.getIsbn());
+                logger.error(ex.getMessage());
+                throw ex;
+            }
+            inventoryLedger.observe(storageNew, requestedAt);
+            return storageNew;
+        });
     }
 
     public Storage getStorageByISBN(String isbn) {
@@ -57,18 +92,46 @@ public class StorageRepository {
                 "/findByISBN" +
                 "?isbn=" +
                 isbn;
-        logger.info("Checking in storage");
-        logger.info(urlBuilder);
-        Storage storage = restTemplate.getForObject(urlBuilder, Storage.class);
-        if (null == storage) {
-            ResourceNotFoundException ex = new ResourceNotFoundException("Book in Storage is not found by isbn: " + isbn);
-            logger.error(ex.getMessage());
-            throw ex;
-        }
-        return storage;
+        logger.info("Checking in storage: {}", urlBuilder);
+        return lookups.execute(isbn, () -> remoteCalls.record("getStorageByISBN", () -> {
+            long requestedAt = System.nanoTime();
+            Storage storage = restTemplate.getForObject(urlBuilder, Storage.class);
+            if (null == storage) {
+                ResourceNotFoundException ex = new ResourceNotFoundException("Book in Storage is not found by isbn: " + isbn);
+                logger.error(ex.getMessage());
+                throw ex;
+            }
+            inventoryLedger.observe(storage, requestedAt);
+            return storage;
+        }));
+    }
+
+    static Storage copy(Storage storage) {
+        return new Storage(storage.getId(), storage.getIsbn(), storage.getQuantity());
     }
 
     public Storage[] getAllBooksInStorage() {
-        return restTemplate.getForObject(storageBaseURL, Storage[].class);
+        return remoteCalls.record("getAllBooksInStorage", () -> restTemplate.getForObject(storageBaseURL, Storage[].class));
+    }
+
+    // reconciles the ledger with the whole storage, also for the titles nobody ordered lately
+    @Scheduled(fixedDelayString = "${orders.inventory.refresh-interval-ms:5000}")
+    public void refreshInventory() {
+        if (!inventoryLedger.isEnabled()) {
+            return;
+        }
+        long requestedAt = System.nanoTime();
+        try {
+            Storage[] storages = getAllBooksInStorage();
+            if (null == storages) {
+                return;
+            }
+            for (Storage storage : storages) {
+                inventoryLedger.observe(storage, requestedAt);
+            }
+            logger.debug("Inventory ledger reconciled with {} titles", storages.length);
+        } catch (RuntimeException ex) {
+            logger.warn("Could not reconcile inventory ledger: {}", ex.getMessage());
+        }
     }
 }
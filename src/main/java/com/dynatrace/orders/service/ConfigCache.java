@@ -0,0 +1,80 @@
+package com.dynatrace.orders.service;
+
+import com.dynatrace.orders.model.Config;
+import com.dynatrace.orders.repository.ConfigRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+
+// in-memory snapshot of the configs table, replaced as a whole on every refresh
+@Service
+public class ConfigCache {
+    @Autowired
+    private ConfigRepository configRepository;
+    @Autowired
+    private MeterRegistry meterRegistry;
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>(new Snapshot(Map.of(), 0L));
+    private Counter refreshCounter;
+    private Logger logger = LoggerFactory.getLogger(ConfigCache.class);
+
+    @PostConstruct
+    public void init() {
+        refreshCounter = Counter.builder("orders.config.snapshot.refreshes")
+                .description("Number of times the config snapshot was reloaded")
+                .register(meterRegistry);
+        Gauge.builder("orders.config.snapshot.age", this, ConfigCache::getSnapshotAgeSeconds)
+                .description("Seconds since the config snapshot was loaded")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+        scheduledRefresh();
+    }
+
+    // pick up changes made by other instances or directly in the DB
+    @Scheduled(fixedDelayString = "${orders.config.refresh-interval-ms:5000}", initialDelayString = "${orders.config.refresh-interval-ms:5000}")
+    public void scheduledRefresh() {
+        try {
+            refresh();
+        } catch (RuntimeException ex) {
+            logger.warn("Could not refresh configs, keeping the previous snapshot: {}", ex.getMessage());
+        }
+    }
+
+    public void refresh() {
+        replace(configRepository.findAll());
+    }
+
+    public void replace(Collection<Config> configs) {
+        Map<String, Config> values = new HashMap<>();
+        for (Config config : configs) {
+            // detached copies, so nobody can change the snapshot behind our back
+            values.put(config.getId(), new Config(config.getId(), config.getLoadCPU(), config.getLoadRAM(),
+                    config.getProbabilityFailure(), config.getPropertyStr(), config.isTurnedOn()));
+        }
+        snapshot.set(new Snapshot(Map.copyOf(values), System.currentTimeMillis()));
+        refreshCounter.increment();
+    }
+
+    public Optional<Config> get(String id) {
+        return Optional.ofNullable(snapshot.get().configs().get(id));
+    }
+
+    public double getSnapshotAgeSeconds() {
+        long loadedAt = snapshot.get().loadedAt();
+        return loadedAt == 0L ? Double.NaN : (System.currentTimeMillis() - loadedAt) / 1000.0;
+    }
+
+    private record Snapshot(Map<String, Config> configs, long loadedAt) {
+    }
+}
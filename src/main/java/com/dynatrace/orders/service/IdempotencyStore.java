@@ -0,0 +1,265 @@
+package com.dynatrace.orders.service;
+
+import com.dynatrace.orders.exception.BadRequestException;
+import com.dynatrace.orders.exception.ConflictException;
+import com.dynatrace.orders.model.IdempotencyRecord;
+import com.dynatrace.orders.repository.IdempotencyRepository;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.annotation.PostConstruct;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+// Runs a request at most once per Idempotency-Key and replays its response to retries.
+// Duplicates on this instance wait on the in-flight future, duplicates on other instances on the
+// idempotency_keys row; completed responses (and deterministic 4xx rejections) are kept for the TTL, in memory and in the DB.
+// A response the DB did not take is written again in the background, its row stays claimed until then.
+@Service
+public class IdempotencyStore {
+    // the client errors a retry of the same request gets again, only these are kept for the TTL
+    private static final Set<HttpStatus> DETERMINISTIC = EnumSet.of(HttpStatus.BAD_REQUEST, HttpStatus.FORBIDDEN,
+            HttpStatus.NOT_FOUND, HttpStatus.EXPECTATION_FAILED, HttpStatus.UNPROCESSABLE_ENTITY);
+    @Autowired
+    private IdempotencyRepository idempotencyRepository;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Value("${orders.idempotency.ttl-ms:86400000}")
+    private long ttlMs;
+    @Value("${orders.idempotency.max-size:100000}")
+    private long maxSize;
+    @Value("${orders.idempotency.wait-timeout-ms:10000}")
+    private long waitTimeoutMs;
+    @Value("${orders.idempotency.lease-ms:60000}")
+    private long leaseMs;
+    private Cache<String, Entry> entries;
+    private final Map<String, Stored> unsaved = new ConcurrentHashMap<>();
+    private Logger logger = LoggerFactory.getLogger(IdempotencyStore.class);
+
+    @PostConstruct
+    public void init() {
+        entries = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofMillis(ttlMs))
+                .build();
+    }
+
+    public <T> T execute(String key, String operation, Object request, Class<T> type, Supplier<T> action) {
+        String fingerprint = fingerprint(operation, request);
+        Entry mine = new Entry(fingerprint, new CompletableFuture<>());
+        Entry existing = entries.asMap().putIfAbsent(key, mine);
+        if (null != existing) {
+            checkFingerprint(key, existing.fingerprint(), fingerprint);
+            logger.info("Request with Idempotency-Key {} is a duplicate, replaying the first response", key);
+            return replay(await(key, existing.response()), type);
+        }
+
+        Optional<Stored> earlier;
+        try {
+            earlier = claim(key, fingerprint);
+        } catch (RuntimeException ex) {
+            // the key belongs to another request, only the local entry goes
+            entries.asMap().remove(key, mine);
+            mine.response().completeExceptionally(ex);
+            throw ex;
+        }
+        if (earlier.isPresent()) {
+            mine.response().complete(earlier.get());
+            return replay(earlier.get(), type);
+        }
+
+        try {
+            T result;
+            try {
+                result = action.get();
+            } catch (ResponseStatusException ex) {
+                if (!DETERMINISTIC.contains(ex.getStatus())) {
+                    // 5xx, and 408/409/429 of a timeout, lock contention or throttling: a retry may well succeed
+                    forget(key, mine, ex);
+                    throw ex;
+                }
+                // a rejection is an answer too, a retry gets the same one
+                store(key, mine, new Stored(ex.getRawStatusCode(), ex.getReason()));
+                throw ex;
+            } catch (RuntimeException ex) {
+                forget(key, mine, ex);
+                throw ex;
+            }
+            store(key, mine, new Stored(HttpStatus.OK.value(), toJson(result)));
+            return result;
+        } finally {
+            // whatever went wrong, local duplicates must not wait for the TTL
+            mine.response().completeExceptionally(new ConflictException("The request with Idempotency-Key " + key + " did not finish"));
+        }
+    }
+
+    // the request ran, so the key is never released from here on: local duplicates get the response at once,
+    // and if the DB does not take it, storeUnsaved tries again
+    private void store(String key, Entry entry, Stored stored) {
+        entry.response().complete(stored);
+        try {
+            idempotencyRepository.complete(key, stored.status(), stored.body());
+        } catch (RuntimeException ex) {
+            logger.error("Could not store the response of Idempotency-Key {}, retrying: {}", key, ex.getMessage());
+            unsaved.put(key, stored);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${orders.idempotency.retry-interval-ms:1000}")
+    public void storeUnsaved() {
+        for (Map.Entry<String, Stored> pending : unsaved.entrySet()) {
+            Stored stored = pending.getValue();
+            try {
+                idempotencyRepository.complete(pending.getKey(), stored.status(), stored.body());
+                unsaved.remove(pending.getKey(), stored);
+            } catch (RuntimeException ex) {
+                logger.warn("Still could not store the response of Idempotency-Key {}: {}", pending.getKey(), ex.getMessage());
+                return;
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${orders.idempotency.purge-interval-ms:600000}", initialDelayString = "${orders.idempotency.purge-interval-ms:600000}")
+    public void purge() {
+        try {
+            int deleted = idempotencyRepository.deleteCreatedBefore(new Timestamp(System.currentTimeMillis() - ttlMs));
+            logger.debug("Purged {} idempotency keys", deleted);
+        } catch (RuntimeException ex) {
+            logger.warn("Could not purge idempotency keys: {}", ex.getMessage());
+        }
+    }
+
+    // empty when this instance owns the key now, otherwise the response of the request that ran before
+    private Optional<Stored> claim(String key, String fingerprint) {
+        if (idempotencyRepository.claim(key, fingerprint)) {
+            return Optional.empty();
+        }
+        long deadline = System.currentTimeMillis() + waitTimeoutMs;
+        while (true) {
+            IdempotencyRecord record = idempotencyRepository.find(key).orElse(null);
+            if (null == record) {
+                // released by a failed attempt in the meantime
+                if (idempotencyRepository.claim(key, fingerprint)) {
+                    return Optional.empty();
+                }
+                continue;
+            }
+            checkFingerprint(key, record.getFingerprint(), fingerprint);
+            if (record.isCompleted()) {
+                return Optional.of(new Stored(record.getStatus(), record.getBody()));
+            }
+            if (idempotencyRepository.claimAbandoned(key, new Timestamp(System.currentTimeMillis() - leaseMs))) {
+                logger.warn("Taking over the abandoned request with Idempotency-Key {}", key);
+                return Optional.empty();
+            }
+            if (System.currentTimeMillis() > deadline) {
+                throw new ConflictException("The request with Idempotency-Key " + key + " is still in progress");
+            }
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new ConflictException("The request with Idempotency-Key " + key + " is still in progress");
+            }
+        }
+    }
+
+    private Stored await(String key, CompletableFuture<Stored> response) {
+        try {
+            return response.get(waitTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException ex) {
+            // concurrent duplicates share the outcome of the first request
+            if (ex.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException(ex.getCause());
+        } catch (TimeoutException ex) {
+            throw new ConflictException("The request with Idempotency-Key " + key + " is still in progress");
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ConflictException("The request with Idempotency-Key " + key + " is still in progress");
+        }
+    }
+
+    // the request this instance owned failed in a way a retry may fix
+    private void forget(String key, Entry entry, RuntimeException ex) {
+        entries.asMap().remove(key, entry);
+        try {
+            idempotencyRepository.release(key);
+        } catch (RuntimeException releaseEx) {
+            logger.warn("Could not release Idempotency-Key {}: {}", key, releaseEx.getMessage());
+        }
+        entry.response().completeExceptionally(ex);
+    }
+
+    private <T> T replay(Stored stored, Class<T> type) {
+        if (stored.status() != HttpStatus.OK.value()) {
+            throw new ResponseStatusException(HttpStatus.valueOf(stored.status()), stored.body());
+        }
+        try {
+            return objectMapper.readValue(stored.body(), type);
+        } catch (JsonProcessingException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private void checkFingerprint(String key, String expected, String actual) {
+        if (!expected.equals(actual)) {
+            BadRequestException ex = new BadRequestException("Idempotency-Key " + key + " was already used for a different request");
+            logger.error(ex.getMessage());
+            throw ex;
+        }
+    }
+
+    private String fingerprint(String operation, Object request) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(operation.getBytes(StandardCharsets.UTF_8));
+            digest.update(objectMapper.writeValueAsBytes(request));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        } catch (JsonProcessingException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private String toJson(Object result) {
+        try {
+            return objectMapper.writeValueAsString(result);
+        } catch (JsonProcessingException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private record Entry(String fingerprint, CompletableFuture<Stored> response) {
+    }
+
+    private record Stored(int status, String body) {
+    }
+}
@@ -0,0 +1,19 @@
+package com.dynatrace.orders.service;
+
+import com.dynatrace.orders.model.Order;
+
+import javax.persistence.PostPersist;
+import javax.persistence.PostRemove;
+
+// entity listener of Order; hibernate creates its own listener instances, so the count lives in OrderCounter
+public class OrderCountListener {
+    @PostPersist
+    public void created(Order order) {
+        OrderCounter.COUNT.incrementAndGet();
+    }
+
+    @PostRemove
+    public void deleted(Order order) {
+        OrderCounter.COUNT.decrementAndGet();
+    }
+}
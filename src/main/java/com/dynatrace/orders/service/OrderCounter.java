@@ -0,0 +1,56 @@
+package com.dynatrace.orders.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.sql.DataSource;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Approximate number of orders for the version endpoint, without a count(*) per probe: OrderCountListener follows
+// the inserts and deletes of this instance, and the count is reconciled with the Postgres statistics of the table,
+// which also see the orders of the other instances
+@Service
+public class OrderCounter {
+    @Autowired
+    private DataSource dataSource;
+    private JdbcTemplate jdbcTemplate;
+    // static, the listener instances hibernate creates are not this bean
+    static final AtomicLong COUNT = new AtomicLong();
+    private Logger logger = LoggerFactory.getLogger(OrderCounter.class);
+
+    @PostConstruct
+    public void init() {
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        reconcile();
+    }
+
+    public long get() {
+        return Math.max(0L, COUNT.get());
+    }
+
+    public void reset() {
+        COUNT.set(0L);
+    }
+
+    // live tuples of the statistics collector, the planner estimate if there are none yet, and an exact count only
+    // for a table that was never analyzed
+    @Scheduled(fixedDelayString = "${orders.counter.reconcile-interval-ms:60000}", initialDelayString = "${orders.counter.reconcile-interval-ms:60000}")
+    public void reconcile() {
+        try {
+            Long estimate = jdbcTemplate.queryForObject("SELECT CASE WHEN s.n_live_tup > 0 OR c.reltuples <= 0 THEN s.n_live_tup " +
+                    "ELSE c.reltuples::bigint END FROM pg_class c LEFT JOIN pg_stat_user_tables s ON s.relid = c.oid " +
+                    "WHERE c.oid = to_regclass('orders')", Long.class);
+            if (null == estimate || estimate < 0) {
+                estimate = jdbcTemplate.queryForObject("SELECT count(*) FROM orders", Long.class);
+            }
+            COUNT.set(null == estimate ? 0L : estimate);
+        } catch (RuntimeException ex) {
+            logger.warn("Could not reconcile the order count, keeping {}: {}", COUNT.get(), ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.dynatrace.orders.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.util.function.Supplier;
+
+// timers for the phases of an order flow (verify, buy, pay, compensate, persist) and a counter of the
+// compensations taken: orders.flow.phase{flow, phase, outcome, exception}, orders.flow.compensations{flow, reason, outcome}
+@Service
+public class OrderFlowMetrics {
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    public <T> T record(String flow, String phase, Supplier<T> step) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        try {
+            T result = step.get();
+            sample.stop(timer(flow, phase, "SUCCESS", "none"));
+            return result;
+        } catch (RuntimeException ex) {
+            sample.stop(timer(flow, phase, "ERROR", ex.getClass().getSimpleName()));
+            throw ex;
+        }
+    }
+
+    public <T> Mono<T> record(String flow, String phase, Mono<T> step) {
+        return Mono.defer(() -> {
+            Timer.Sample sample = Timer.start(meterRegistry);
+            return step
+                    .doOnSuccess(result -> sample.stop(timer(flow, phase, "SUCCESS", "none")))
+                    .doOnError(ex -> sample.stop(timer(flow, phase, "ERROR", ex.getClass().getSimpleName())));
+        });
+    }
+
+    public void compensation(String flow, String reason, boolean succeeded) {
+        Counter.builder("orders.flow.compensations")
+                .description("Compensating actions taken after a failed step of an order")
+                .tag("flow", flow)
+                .tag("reason", reason)
+                .tag("outcome", succeeded ? "SUCCESS" : "ERROR")
+                .register(meterRegistry)
+                .increment();
+    }
+
+    private Timer timer(String flow, String phase, String outcome, String exception) {
+        return Timer.builder("orders.flow.phase")
+                .description("Phases of the order flows")
+                .tag("flow", flow)
+                .tag("phase", phase)
+                .tag("outcome", outcome)
+                .tag("exception", exception)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,256 @@
+package com.dynatrace.orders.service;
+
+import com.dynatrace.orders.exception.ConflictException;
+import com.dynatrace.orders.exception.ServiceUnavailableException;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// Serializes the requests for one (email, isbn) order: a fixed table of stripes picked by the hash of the pair, so
+// requests for other orders only wait when they hash to the same stripe. With orders.locks.mode=advisory the stripe
+// is followed by a Postgres advisory lock on the pair to serialize across instances. The lock is held for the whole
+// flow on a connection of a separate pool of orders.locks.advisory-pool-size, so locked orders never wait for their
+// own flow's connections in the main pool; orders beyond that many in progress get 503 after acquire-timeout.
+// withLocks holds the locks of several orders of one title at once, taken in ascending order so it cannot deadlock.
+// Waits are timed in orders.locks.wait{outcome}, waits that found the stripe taken counted in orders.locks.contended
+@Service
+public class OrderLocks {
+    private static final long ADVISORY_POLL_MS = 20L;
+    @Autowired
+    private MeterRegistry meterRegistry;
+    @Autowired(required = false)
+    private DataSourceProperties dataSourceProperties;
+    @Value("${orders.locks.stripes:1024}")
+    private int stripeCount;
+    @Value("${orders.locks.acquire-timeout-ms:5000}")
+    private long acquireTimeoutMs;
+    @Value("${orders.locks.mode:local}")
+    private String mode;
+    @Value("${orders.locks.advisory-pool-size:10}")
+    private int advisoryPoolSize;
+    private HikariDataSource lockPool;
+    private Semaphore[] stripes;
+    private Counter contended;
+    private Logger logger = LoggerFactory.getLogger(OrderLocks.class);
+
+    @PostConstruct
+    public void init() {
+        // semaphores rather than locks: the reactive flows release on another thread than they acquired on
+        stripes = new Semaphore[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Semaphore(1);
+        }
+        contended = Counter.builder("orders.locks.contended")
+                .description("Order lock requests that had to wait for another request")
+                .register(meterRegistry);
+        if ("advisory".equals(mode)) {
+            lockPool = dataSourceProperties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+            lockPool.setPoolName("order-locks");
+            lockPool.setMaximumPoolSize(advisoryPoolSize);
+            lockPool.setMinimumIdle(0);
+            lockPool.setConnectionTimeout(Math.max(250L, acquireTimeoutMs));
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (null != lockPool) {
+            lockPool.close();
+        }
+    }
+
+    public <T> T withLock(String email, String isbn, Supplier<T> action) {
+        try (Held held = acquire(isbn, List.of(email))) {
+            return action.get();
+        }
+    }
+
+    // the orders of all the emails for one title, e.g. to store them in one transaction
+    public <T> T withLocks(String isbn, Collection<String> emails, Supplier<T> action) {
+        try (Held held = acquire(isbn, emails)) {
+            return action.get();
+        }
+    }
+
+    // waits for the lock on the bounded elastic scheduler, the action runs after it
+    public <T> Mono<T> withLock(String email, String isbn, Mono<T> action) {
+        return Mono.using(() -> acquire(isbn, List.of(email)), held -> action, Held::close)
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private Held acquire(String isbn, Collection<String> emails) {
+        // distinct and sorted: two emails may share a stripe, and requests taking several must take them in one order
+        SortedSet<Integer> stripeIndexes = new TreeSet<>();
+        SortedSet<Long> keys = new TreeSet<>();
+        for (String email : emails) {
+            stripeIndexes.add(Math.floorMod(Objects.hash(email, isbn), stripes.length));
+            keys.add(advisoryKey(email, isbn));
+        }
+        Timer.Sample sample = Timer.start(meterRegistry);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(acquireTimeoutMs);
+        List<Semaphore> taken = new ArrayList<>(stripeIndexes.size());
+        for (int index : stripeIndexes) {
+            Semaphore stripe = stripes[index];
+            if (!tryAcquire(stripe, deadline)) {
+                taken.forEach(Semaphore::release);
+                sample.stop(waitTimer("TIMEOUT"));
+                throw busy(isbn, emails);
+            }
+            taken.add(stripe);
+        }
+        Connection connection = null;
+        if ("advisory".equals(mode)) {
+            try {
+                connection = lockAcrossInstances(keys, deadline);
+            } catch (RuntimeException ex) {
+                taken.forEach(Semaphore::release);
+                sample.stop(waitTimer(ex instanceof ConflictException ? "TIMEOUT" : "ERROR"));
+                throw ex instanceof ConflictException ? busy(isbn, emails) : ex;
+            }
+        }
+        sample.stop(waitTimer("ACQUIRED"));
+        return new Held(taken, connection, keys);
+    }
+
+    private boolean tryAcquire(Semaphore stripe, long deadline) {
+        if (stripe.tryAcquire()) {
+            return true;
+        }
+        contended.increment();
+        try {
+            return stripe.tryAcquire(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    // all keys on one connection of the lock pool; on failure the keys already locked are unlocked again
+    private Connection lockAcrossInstances(Collection<Long> keys, long deadline) {
+        Connection connection = null;
+        List<Long> locked = new ArrayList<>(keys.size());
+        try {
+            connection = lockPool.getConnection();
+            try (PreparedStatement statement = connection.prepareStatement("SELECT pg_try_advisory_lock(?)")) {
+                for (long key : keys) {
+                    statement.setLong(1, key);
+                    while (true) {
+                        try (ResultSet rs = statement.executeQuery()) {
+                            if (rs.next() && rs.getBoolean(1)) {
+                                locked.add(key);
+                                break;
+                            }
+                        }
+                        if (System.nanoTime() >= deadline) {
+                            throw new ConflictException("Order is locked by another instance");
+                        }
+                        Thread.sleep(ADVISORY_POLL_MS);
+                    }
+                }
+                return connection;
+            }
+        } catch (SQLException ex) {
+            release(connection, locked);
+            throw new ServiceUnavailableException("Could not lock the order: " + ex.getMessage());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            release(connection, locked);
+            throw new ConflictException("Interrupted while waiting for the order lock");
+        } catch (RuntimeException ex) {
+            release(connection, locked);
+            throw ex;
+        }
+    }
+
+    private static long advisoryKey(String email, String isbn) {
+        return ((long) Objects.hashCode(email) << 32) | (Objects.hashCode(isbn) & 0xffffffffL);
+    }
+
+    private static ConflictException busy(String isbn, Collection<String> emails) {
+        if (emails.size() == 1) {
+            return new ConflictException("Another request for the order of ISBN " + isbn + " client " + emails.iterator().next() + " is in progress");
+        }
+        return new ConflictException("Another request for an order of ISBN " + isbn + " is in progress");
+    }
+
+    private Timer waitTimer(String outcome) {
+        return Timer.builder("orders.locks.wait")
+                .description("Time spent waiting for an order lock")
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    private void release(Connection connection, Collection<Long> keys) {
+        if (null == connection) {
+            return;
+        }
+        try (PreparedStatement statement = connection.prepareStatement("SELECT pg_advisory_unlock(?)")) {
+            for (long key : keys) {
+                statement.setLong(1, key);
+                statement.execute();
+            }
+        } catch (SQLException ex) {
+            // an unlock only fails on a broken connection, which the pool drops together with its session
+            logger.warn("Could not release the order advisory lock: {}", ex.getMessage());
+        }
+        close(connection);
+    }
+
+    private void close(Connection connection) {
+        if (null == connection) {
+            return;
+        }
+        try {
+            connection.close();
+        } catch (SQLException ex) {
+            logger.warn("Could not close the order lock connection: {}", ex.getMessage());
+        }
+    }
+
+    private class Held implements AutoCloseable {
+        private final List<Semaphore> stripes;
+        private final Connection connection;
+        private final Collection<Long> keys;
+
+        Held(List<Semaphore> stripes, Connection connection, Collection<Long> keys) {
+            this.stripes = stripes;
+            this.connection = connection;
+            this.keys = keys;
+        }
+
+        @Override
+        public void close() {
+            try {
+                release(connection, keys);
+            } finally {
+                stripes.forEach(Semaphore::release);
+            }
+        }
+    }
+}
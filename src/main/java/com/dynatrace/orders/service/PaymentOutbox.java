@@ -0,0 +1,45 @@
+package com.dynatrace.orders.service;
+
+import com.dynatrace.orders.model.Order;
+import com.dynatrace.orders.model.PaymentOutboxEntry;
+import com.dynatrace.orders.model.Storage;
+import com.dynatrace.orders.repository.OrderRepository;
+import com.dynatrace.orders.repository.PaymentOutboxRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Optional;
+
+// an order and its outbox row are written and settled in one transaction: there is never a pending order
+// without a payment to make, nor a payment for an order that was not stored
+@Service
+public class PaymentOutbox {
+    @Autowired
+    private OrderRepository orderRepository;
+    @Autowired
+    private PaymentOutboxRepository outboxRepository;
+
+    @Transactional
+    public Order enqueue(Order order, Storage storage, double amount) {
+        order.setCompleted(false);
+        order.setPaymentStatus(Order.PAYMENT_PENDING);
+        // flushed, so the order row is written before the outbox row that points at it
+        Order saved = orderRepository.saveAndFlush(order);
+        outboxRepository.insert(saved.getId(), saved.getEmail(), saved.getIsbn(), storage.getQuantity(), storage.getId(), amount);
+        return saved;
+    }
+
+    // empty if the order was deleted while its payment was pending
+    @Transactional
+    public Optional<Order> settle(PaymentOutboxEntry entry, boolean paid) {
+        Optional<Order> order = orderRepository.findById(entry.getOrderId());
+        order.ifPresent(settled -> {
+            settled.setPaymentStatus(paid ? Order.PAYMENT_PAID : Order.PAYMENT_FAILED);
+            settled.setCompleted(paid);
+            orderRepository.save(settled);
+        });
+        outboxRepository.delete(entry.getId());
+        return order;
+    }
+}
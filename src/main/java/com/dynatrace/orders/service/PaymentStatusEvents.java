@@ -0,0 +1,91 @@
+package com.dynatrace.orders.service;
+
+import com.dynatrace.orders.model.Order;
+import com.dynatrace.orders.repository.OrderRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// server-sent events of orders waiting for their payment: the current state on subscribe, then the final one.
+// The worker of this instance publishes right away, payments settled by other instances are found by polling the DB
+@Service
+public class PaymentStatusEvents {
+    @Autowired
+    private OrderRepository orderRepository;
+    @Value("${orders.payment.events.timeout-ms:60000}")
+    private long timeoutMs;
+    private final Map<Long, List<SseEmitter>> subscribers = new ConcurrentHashMap<>();
+    private Logger logger = LoggerFactory.getLogger(PaymentStatusEvents.class);
+
+    public SseEmitter subscribe(Order order) {
+        SseEmitter emitter = new SseEmitter(timeoutMs);
+        if (!order.isPaymentPending()) {
+            send(emitter, order);
+            emitter.complete();
+            return emitter;
+        }
+        long orderId = order.getId();
+        subscribers.computeIfAbsent(orderId, id -> new CopyOnWriteArrayList<>()).add(emitter);
+        emitter.onCompletion(() -> unsubscribe(orderId, emitter));
+        emitter.onTimeout(() -> unsubscribe(orderId, emitter));
+        emitter.onError(ex -> unsubscribe(orderId, emitter));
+        send(emitter, order);
+        // the payment may have been settled between reading the order and subscribing
+        orderRepository.findById(orderId).filter(current -> !current.isPaymentPending()).ifPresent(this::publish);
+        return emitter;
+    }
+
+    public void publish(Order order) {
+        List<SseEmitter> emitters = subscribers.remove(order.getId());
+        if (null == emitters) {
+            return;
+        }
+        for (SseEmitter emitter : emitters) {
+            send(emitter, order);
+            emitter.complete();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${orders.payment.events.poll-interval-ms:1000}")
+    public void pollSettled() {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        try {
+            for (Order order : orderRepository.findAllById(subscribers.keySet())) {
+                if (!order.isPaymentPending()) {
+                    publish(order);
+                }
+            }
+        } catch (RuntimeException ex) {
+            logger.warn("Could not poll payment status: {}", ex.getMessage());
+        }
+    }
+
+    private void unsubscribe(long orderId, SseEmitter emitter) {
+        subscribers.computeIfPresent(orderId, (id, emitters) -> {
+            emitters.remove(emitter);
+            return emitters.isEmpty() ? null : emitters;
+        });
+    }
+
+    private void send(SseEmitter emitter, Order order) {
+        try {
+            emitter.send(SseEmitter.event().name("order").data(order));
+        } catch (IOException | IllegalStateException ex) {
+            // the client is gone, completing the emitter cleans up
+            logger.debug("Could not send payment status of order {}: {}", order.getId(), ex.getMessage());
+            emitter.completeWithError(ex);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.dynatrace.orders.service;
+
+import com.dynatrace.orders.exception.PaymentException;
+import com.dynatrace.orders.model.Order;
+import com.dynatrace.orders.model.Payment;
+import com.dynatrace.orders.model.PaymentOutboxEntry;
+import com.dynatrace.orders.repository.PaymentOutboxRepository;
+import com.dynatrace.orders.repository.PaymentRepository;
+import com.dynatrace.orders.repository.StorageRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// drains payment_outbox when orders.payment.mode=async: pays the order, or gives the books back to the storage
+// once the payment is declined or has failed max-attempts times. Transient failures are retried with backoff.
+// A failure may come after the payment service charged (a read timeout, a failed settle), so every attempt of an
+// entry sends the same Idempotency-Key and a retry gets the first answer back instead of paying again
+@Service
+public class PaymentWorker {
+    private static final String FLOW = "payment";
+    @Autowired
+    private PaymentOutboxRepository outboxRepository;
+    @Autowired
+    private PaymentOutbox paymentOutbox;
+    @Autowired
+    private PaymentRepository paymentRepository;
+    @Autowired
+    private StorageRepository storageRepository;
+    @Autowired
+    private OrderFlowMetrics flowMetrics;
+    @Autowired
+    private PaymentStatusEvents statusEvents;
+    @Autowired
+    private MeterRegistry meterRegistry;
+    @Autowired
+    @Qualifier("paymentExecutor")
+    private ExecutorService executor;
+    @Value("${orders.payment.mode:sync}")
+    private String paymentMode;
+    @Value("${orders.payment.workers:8}")
+    private int workers;
+    @Value("${orders.payment.outbox.batch-size:50}")
+    private int batchSize;
+    @Value("${orders.payment.outbox.lease-ms:60000}")
+    private long leaseMs;
+    @Value("${orders.payment.outbox.max-attempts:5}")
+    private int maxAttempts;
+    @Value("${orders.payment.outbox.backoff-ms:1000}")
+    private long backoffMs;
+    @Value("${orders.payment.outbox.max-backoff-ms:60000}")
+    private long maxBackoffMs;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private Logger logger = LoggerFactory.getLogger(PaymentWorker.class);
+
+    @PostConstruct
+    public void init() {
+        Gauge.builder("orders.payment.outbox.in-flight", inFlight, AtomicInteger::get)
+                .description("Outbox entries being processed by this instance")
+                .register(meterRegistry);
+        Gauge.builder("orders.payment.outbox.size", outboxRepository, PaymentOutboxRepository::countPending)
+                .description("Payments waiting in the outbox, of all instances")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${orders.payment.outbox.poll-interval-ms:200}")
+    public void poll() {
+        if (!"async".equals(paymentMode)) {
+            return;
+        }
+        int idle = workers - inFlight.get();
+        if (idle <= 0) {
+            return;
+        }
+        List<PaymentOutboxEntry> entries;
+        try {
+            entries = outboxRepository.claim(Math.min(batchSize, idle), leaseMs);
+        } catch (RuntimeException ex) {
+            logger.warn("Could not claim payments from the outbox: {}", ex.getMessage());
+            return;
+        }
+        for (PaymentOutboxEntry entry : entries) {
+            inFlight.incrementAndGet();
+            executor.execute(() -> {
+                try {
+                    process(entry);
+                } catch (RuntimeException ex) {
+                    // the lease runs out and another worker takes the entry again
+                    logger.error("Could not process payment of order {}: {}", entry.getOrderId(), ex.getMessage());
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            });
+        }
+    }
+
+    private void process(PaymentOutboxEntry entry) {
+        if (!entry.isCompensating()) {
+            Payment payment;
+            try {
+                payment = flowMetrics.record(FLOW, "pay", () -> paymentRepository.submitPayment(entry.toPayment(), entry.paymentKey()));
+            } catch (PaymentException ex) {
+                declined(entry, ex.getMessage());
+                compensate(entry);
+                return;
+            } catch (RuntimeException ex) {
+                if (entry.getAttempts() < maxAttempts) {
+                    logger.warn("Payment of order {} failed, attempt {} of {}: {}", entry.getOrderId(), entry.getAttempts(), maxAttempts, ex.getMessage());
+                    outboxRepository.reschedule(entry.getId(), backoff(entry.getAttempts()), ex.getMessage());
+                    return;
+                }
+                declined(entry, "Payment gave up after " + entry.getAttempts() + " attempts: " + ex.getMessage());
+                compensate(entry);
+                return;
+            }
+            if (payment.isSucceeded()) {
+                logger.debug("Paid order {} client {}", entry.getOrderId(), entry.getEmail());
+                paid(entry);
+                return;
+            }
+            declined(entry, "Payment Failed: " + payment.getMessage());
+        }
+        compensate(entry);
+    }
+
+    // the client is charged: a failed settle only reschedules the entry, whatever the attempt. The retry sends the
+    // same Idempotency-Key and gets this payment back, the books must never go back to storage from here
+    private void paid(PaymentOutboxEntry entry) {
+        try {
+            settle(entry, true);
+        } catch (RuntimeException ex) {
+            logger.error("Order {} is paid but could not be settled, attempt {}: {}", entry.getOrderId(), entry.getAttempts(), ex.getMessage());
+            outboxRepository.reschedule(entry.getId(), backoff(entry.getAttempts()), ex.getMessage());
+        }
+    }
+
+    private void declined(PaymentOutboxEntry entry, String reason) {
+        logger.error("Payment of order {} failed, returning books to storage: {}", entry.getOrderId(), reason);
+        outboxRepository.toCompensation(entry.getId(), reason);
+        entry.setStage(PaymentOutboxEntry.STAGE_COMPENSATE);
+    }
+
+    // retried until the storage takes the books back, the order stays pending meanwhile
+    private void compensate(PaymentOutboxEntry entry) {
+        try {
+            flowMetrics.record(FLOW, "compensate", () -> storageRepository.returnBook(entry.toStorage()));
+            flowMetrics.compensation(FLOW, "payment_failed", true);
+        } catch (RuntimeException ex) {
+            flowMetrics.compensation(FLOW, "payment_failed", false);
+            logger.error("Could not return books of order {} to storage: {}", entry.getOrderId(), ex.getMessage());
+            outboxRepository.reschedule(entry.getId(), backoff(entry.getAttempts()), ex.getMessage());
+            return;
+        }
+        settle(entry, false);
+    }
+
+    private void settle(PaymentOutboxEntry entry, boolean paid) {
+        Optional<Order> order = flowMetrics.record(FLOW, "persist", () -> paymentOutbox.settle(entry, paid));
+        if (order.isEmpty()) {
+            logger.warn("Order {} was deleted while its payment was pending", entry.getOrderId());
+            return;
+        }
+        statusEvents.publish(order.get());
+    }
+
+    private long backoff(int attempts) {
+        return Math.min(backoffMs << Math.min(attempts - 1, 20), maxBackoffMs);
+    }
+}
@@ -0,0 +1,73 @@
+package com.dynatrace.orders.service;
+
+import com.dynatrace.orders.exception.TimeOutException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+// runs the independent checks of an order (client, book, storage) concurrently
+@Service
+public class VerificationStage {
+    @Value("${orders.verify.parallel:true}")
+    private boolean parallel;
+    @Value("${orders.verify.timeout-ms:5000}")
+    private long timeoutMs;
+    @Autowired
+    @Qualifier("verificationExecutor")
+    private ExecutorService executor;
+
+    // results come back in the order of the checks; when several checks fail the first one in that order wins,
+    // exactly as if they were called one after another
+    public List<Object> verify(Supplier<?>... checks) {
+        List<Object> results = new ArrayList<>(checks.length);
+        if (!parallel) {
+            for (Supplier<?> check : checks) {
+                results.add(check.get());
+            }
+            return results;
+        }
+
+        List<Future<?>> futures = new ArrayList<>(checks.length);
+        for (Supplier<?> check : checks) {
+            futures.add(executor.submit(check::get));
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        try {
+            for (Future<?> future : futures) {
+                results.add(future.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS));
+            }
+        } catch (ExecutionException ex) {
+            cancel(futures);
+            if (ex.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            } else if (ex.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw new IllegalStateException(ex.getCause());
+        } catch (TimeoutException ex) {
+            cancel(futures);
+            throw new TimeOutException("Order verification did not finish in " + timeoutMs + " ms");
+        } catch (InterruptedException ex) {
+            cancel(futures);
+            Thread.currentThread().interrupt();
+            throw new TimeOutException("Order verification was interrupted");
+        }
+        return results;
+    }
+
+    private void cancel(List<Future<?>> futures) {
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+-- the schema as hibernate's ddl-auto=update used to create it;
+-- existing databases are baselined at this version and skip it
+CREATE TABLE IF NOT EXISTS configs (
+    id           varchar(255) NOT NULL,
+    load_cpu     int8,
+    load_ram     int8,
+    probab_fail  float8,
+    property_str varchar(255),
+    turn_on      boolean,
+    CONSTRAINT configs_pkey PRIMARY KEY (id)
+);
+
+CREATE TABLE IF NOT EXISTS orders (
+    id            bigserial    NOT NULL,
+    completed     boolean      NOT NULL,
+    created_at    timestamp    NOT NULL,
+    email         varchar(255) NOT NULL,
+    email_reg_exp varchar(255),
+    isbn          varchar(13)  NOT NULL,
+    price         float8       NOT NULL,
+    quantity      int4         NOT NULL,
+    updated_at    timestamp    NOT NULL,
+    CONSTRAINT orders_pkey PRIMARY KEY (id),
+    CONSTRAINT uk_orders_email_isbn UNIQUE (email, isbn)
+);
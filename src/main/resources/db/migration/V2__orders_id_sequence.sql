@@ -0,0 +1,4 @@
+-- pooled id sequence of Order (allocationSize = 50), replaces the identity column for batched inserts
+CREATE SEQUENCE IF NOT EXISTS orders_seq START WITH 1 INCREMENT BY 50;
+-- move it past the ids issued by the identity column
+SELECT setval('orders_seq', GREATEST((SELECT COALESCE(MAX(id), 0) FROM orders) + 50, (SELECT last_value FROM orders_seq)));
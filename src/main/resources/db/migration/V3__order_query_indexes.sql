@@ -0,0 +1,13 @@
+-- built concurrently, so the migration does not block writes on a large orders table
+
+-- OrderRepository.findByIsbn and the per-title lookups of the batch endpoint
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_orders_isbn ON orders (isbn);
+
+-- OrderRepository.findByCompleted(false): open orders are a small slice of the table
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_orders_open ON orders (created_at) WHERE completed = false;
+
+-- orders sorted by creation time
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_orders_created_at ON orders (created_at);
+
+-- keyset pages and the full listing on (email, created_at, id), also serves findByEmail
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_orders_email_created_at_id ON orders (email, created_at, id);
@@ -0,0 +1,2 @@
+-- Order.emailRegExp was an instance field that hibernate mapped and stored in every row
+ALTER TABLE orders DROP COLUMN IF EXISTS email_reg_exp;
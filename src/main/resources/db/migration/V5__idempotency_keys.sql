@@ -0,0 +1,10 @@
+-- responses of submit/cancel by Idempotency-Key; status and body stay null while the first request is in flight
+CREATE TABLE IF NOT EXISTS idempotency_keys (
+    idempotency_key varchar(255) PRIMARY KEY,
+    fingerprint varchar(64) NOT NULL,
+    status integer,
+    body text,
+    created_at timestamp NOT NULL,
+    completed_at timestamp
+);
+CREATE INDEX IF NOT EXISTS idx_idempotency_keys_created_at ON idempotency_keys (created_at);
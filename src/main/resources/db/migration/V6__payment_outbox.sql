@@ -0,0 +1,22 @@
+-- asynchronous payments: the order waits as PENDING while its payment sits in the outbox, then becomes PAID or FAILED;
+-- synchronously paid orders keep a null status
+ALTER TABLE orders ADD COLUMN IF NOT EXISTS payment_status varchar(16);
+
+-- one row per payment still to be made, deleted once the order is settled; stage is PAY until the payment is declined
+-- or given up on, then COMPENSATE until the books are back in storage. A worker that claims rows pushes
+-- next_attempt_at past its lease, so a row of a crashed worker is picked up again when the lease runs out
+CREATE TABLE IF NOT EXISTS payment_outbox (
+    id bigserial PRIMARY KEY,
+    order_id bigint NOT NULL,
+    email varchar(255) NOT NULL,
+    isbn varchar(13) NOT NULL,
+    quantity integer NOT NULL,
+    storage_id bigint NOT NULL,
+    amount numeric(12,2) NOT NULL,
+    stage varchar(16) NOT NULL DEFAULT 'PAY',
+    attempts integer NOT NULL DEFAULT 0,
+    next_attempt_at timestamp NOT NULL,
+    last_error varchar(1000),
+    created_at timestamp NOT NULL
+);
+CREATE INDEX IF NOT EXISTS idx_payment_outbox_next_attempt_at ON payment_outbox (next_attempt_at);
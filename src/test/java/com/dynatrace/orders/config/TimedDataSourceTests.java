@@ -0,0 +1,28 @@
+package com.dynatrace.orders.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+
+import java.io.Closeable;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+class TimedDataSourceTests {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void closingTheTimedDataSourceClosesThePool() throws Exception {
+        HikariDataSource hikari = new HikariDataSource();
+        hikari.setPoolName("primary");
+        ConnectionTelemetry telemetry = new ConnectionTelemetry(mock(ObjectProvider.class));
+
+        Object bean = telemetry.postProcessAfterInitialization(hikari, "dataSource");
+
+        assertThat(bean).isInstanceOf(TimedDataSource.class).isInstanceOf(Closeable.class);
+        ((Closeable) bean).close();
+        assertThat(hikari.isClosed()).isTrue();
+    }
+}
@@ -0,0 +1,73 @@
+package com.dynatrace.orders.repository;
+
+import com.dynatrace.orders.model.Storage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class InventoryLedgerTests {
+    private static final String ISBN = "9780000000042";
+    private InventoryLedger ledger;
+
+    @BeforeEach
+    void setUp() {
+        ledger = new InventoryLedger(new SimpleMeterRegistry(), true, 10_000L, 2);
+    }
+
+    @Test
+    void saleAlreadyInTheAnswerIsNotCountedAgain() {
+        ledger.observe(new Storage(1L, ISBN, 10), System.nanoTime());
+        // A buys 5: the sell-book answer arrives while A still holds its reservation
+        InventoryLedger.Reservation purchase = ledger.reserve(ISBN, 5);
+        ledger.observe(new Storage(1L, ISBN, 5), System.nanoTime());
+
+        assertThat(ledger.clearlyInsufficient(ISBN, 5)).isFalse();
+        ledger.release(purchase);
+        assertThat(ledger.clearlyInsufficient(ISBN, 5)).isFalse();
+    }
+
+    @Test
+    void purchaseStartedAfterTheAnswerCountsAgainstTheStock() {
+        ledger.observe(new Storage(1L, ISBN, 10), System.nanoTime());
+        InventoryLedger.Reservation purchase = ledger.reserve(ISBN, 10);
+
+        assertThat(ledger.clearlyInsufficient(ISBN, 5)).isTrue();
+        ledger.release(purchase);
+        assertThat(ledger.clearlyInsufficient(ISBN, 5)).isFalse();
+    }
+
+    @Test
+    void acceptanceCountsEveryPurchaseInFlight() {
+        ledger.observe(new Storage(1L, ISBN, 10), System.nanoTime());
+        InventoryLedger.Reservation purchase = ledger.reserve(ISBN, 5);
+        ledger.observe(new Storage(1L, ISBN, 10), System.nanoTime());
+
+        assertThat(ledger.availableStorage(ISBN, 5)).isNull();
+        ledger.release(purchase);
+        assertThat(ledger.availableStorage(ISBN, 5).getQuantity()).isEqualTo(10);
+    }
+
+    @Test
+    void twoEqualPurchasesAreTwoReservations() {
+        ledger.observe(new Storage(1L, ISBN, 10), System.nanoTime());
+        InventoryLedger.Reservation first = ledger.reserve(ISBN, 4);
+        InventoryLedger.Reservation second = ledger.reserve(ISBN, 4);
+        ledger.release(first);
+
+        assertThat(ledger.clearlyInsufficient(ISBN, 9)).isTrue();
+        ledger.release(second);
+        assertThat(ledger.clearlyInsufficient(ISBN, 9)).isFalse();
+    }
+
+    @Test
+    void disabledLedgerAlwaysAsksTheStorage() {
+        InventoryLedger disabled = new InventoryLedger(new SimpleMeterRegistry(), false, 10_000L, 2);
+        disabled.observe(new Storage(1L, ISBN, 0), System.nanoTime());
+
+        assertThat(disabled.isEnabled()).isFalse();
+        assertThat(disabled.clearlyInsufficient(ISBN, 5)).isFalse();
+        assertThat(disabled.availableStorage(ISBN, 5)).isNull();
+    }
+}
@@ -0,0 +1,97 @@
+package com.dynatrace.orders.repository;
+
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.sql.Timestamp;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Runs the migrations into a scratch schema of a local Postgres and checks that the queries
+// of OrderRepository are planned on the indexes. Run with ./gradlew postgresTest
+@Tag("postgres")
+class OrderQueryPlanTests {
+    private static final String SCHEMA = "orders_plan_test";
+    private static JdbcTemplate jdbcTemplate;
+
+    @BeforeAll
+    static void migrateAndLoad() {
+        String url = "jdbc:postgresql://" + env("DT_PG_SERVER", "localhost") + ":" + env("DT_PG_PORT", "5432") + "/"
+                + env("DT_PG_DBNAME", "dt_books_orders") + "?currentSchema=" + SCHEMA;
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(url, env("DT_PG_USER", "pguser"), env("DT_PG_PASS", "p@ssworD!"));
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("DROP SCHEMA IF EXISTS " + SCHEMA + " CASCADE");
+        Flyway.configure().dataSource(dataSource).schemas(SCHEMA).load().migrate();
+
+        // 100k orders of 20k clients for 4999 titles, one in fifty still open;
+        // 4999 is prime, so every (email, isbn) pair is unique
+        jdbcTemplate.execute("INSERT INTO orders (id, email, isbn, quantity, price, completed, created_at, updated_at) " +
+                "SELECT g, 'client' || (g % 20000) || '@example.com', lpad((g % 4999)::text, 13, '0'), 1, 9.99, " +
+                "g % 50 <> 0, now() - g * interval '1 second', now() FROM generate_series(1, 100000) g");
+        jdbcTemplate.execute("ANALYZE orders");
+    }
+
+    @AfterAll
+    static void dropSchema() {
+        jdbcTemplate.execute("DROP SCHEMA IF EXISTS " + SCHEMA + " CASCADE");
+    }
+
+    @Test
+    void findByIsbnUsesIsbnIndex() {
+        assertThat(plan("SELECT * FROM orders WHERE isbn = ?", "0000000000042"))
+                .contains("idx_orders_isbn")
+                .doesNotContain("Seq Scan");
+    }
+
+    @Test
+    void findOpenOrdersUsesPartialIndex() {
+        assertThat(plan("SELECT * FROM orders WHERE completed = ?", false))
+                .contains("idx_orders_open")
+                .doesNotContain("Seq Scan");
+    }
+
+    @Test
+    void newestOrdersUseCreatedAtIndex() {
+        assertThat(plan("SELECT * FROM orders ORDER BY created_at DESC LIMIT 100"))
+                .contains("idx_orders_created_at")
+                .doesNotContain("Seq Scan");
+    }
+
+    @Test
+    void keysetPageUsesEmailCreatedAtIdIndex() {
+        Timestamp createdAt = new Timestamp(System.currentTimeMillis());
+        assertThat(plan("SELECT * FROM orders WHERE (email, created_at, id) > (?, ?, ?) ORDER BY email, created_at, id LIMIT 100",
+                "client500@example.com", createdAt, 500L))
+                .contains("idx_orders_email_created_at_id")
+                .doesNotContain("Seq Scan")
+                .doesNotContain("Sort");
+    }
+
+    @Test
+    void findByEmailAndIsbnUsesUniqueIndex() {
+        assertThat(plan("SELECT * FROM orders WHERE email = ? AND isbn = ?", "client42@example.com", "0000000000042"))
+                .contains("uk_orders_email_isbn")
+                .doesNotContain("Seq Scan");
+    }
+
+    @Test
+    void findByEmailDoesNotScanTheTable() {
+        assertThat(plan("SELECT * FROM orders WHERE email = ?", "client42@example.com"))
+                .contains("Index")
+                .doesNotContain("Seq Scan");
+    }
+
+    private static String plan(String sql, Object... args) {
+        return String.join("\n", jdbcTemplate.queryForList("EXPLAIN " + sql, String.class, args));
+    }
+
+    private static String env(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return null == value ? defaultValue : value;
+    }
+}
@@ -0,0 +1,132 @@
+package com.dynatrace.orders.repository;
+
+import com.dynatrace.orders.exception.PurchaseForbiddenException;
+import com.dynatrace.orders.model.Storage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ReactiveStorageCallCoalescerTests {
+    private static final String ISBN = "9780000000042";
+    private SimpleMeterRegistry meterRegistry;
+    private final List<Integer> sent = new CopyOnWriteArrayList<>();
+    private final AtomicInteger calls = new AtomicInteger();
+    private final Sinks.One<Storage> firstAnswer = Sinks.one();
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @Test
+    void callWithNoneInFlightIsNotDelayed() {
+        ReactiveStorageCallCoalescer coalescer = coalescer(storage -> Mono.fromCallable(() -> sell(storage, 100)), 10_000L, 50);
+
+        Storage result = coalescer.execute(new Storage(1L, ISBN, 2)).block(Duration.ofSeconds(5));
+
+        assertThat(result.getQuantity()).isEqualTo(98);
+        assertThat(sent).containsExactly(2);
+    }
+
+    @Test
+    void callsArrivingWhileOneIsInFlightShareTheNextCall() throws Exception {
+        ReactiveStorageCallCoalescer coalescer = coalescer(firstHeld(storage -> Mono.fromCallable(() -> sell(storage, 100))), 10_000L, 3);
+
+        CompletableFuture<Storage> first = coalescer.execute(new Storage(1L, ISBN, 1)).toFuture();
+        List<CompletableFuture<Storage>> joined = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            joined.add(coalescer.execute(new Storage(1L, ISBN, 2)).toFuture());
+        }
+        for (CompletableFuture<Storage> call : joined) {
+            assertThat(call.get(5, TimeUnit.SECONDS).getIsbn()).isEqualTo(ISBN);
+        }
+        firstAnswer.tryEmitValue(new Storage(1L, ISBN, 99));
+        first.get(5, TimeUnit.SECONDS);
+
+        assertThat(sent).containsExactlyInAnyOrder(1, 6);
+    }
+
+    @Test
+    void refusedBatchFallsBackToOneCallPerOrder() throws Exception {
+        ReactiveStorageCallCoalescer coalescer = coalescer(firstHeld(storage -> {
+            if (storage.getQuantity() > 3) {
+                sent.add(storage.getQuantity());
+                return Mono.error(new PurchaseForbiddenException("Purchase was rejected, ISBN: " + ISBN));
+            }
+            return Mono.fromCallable(() -> sell(storage, 100));
+        }), 10_000L, 2);
+
+        CompletableFuture<Storage> first = coalescer.execute(new Storage(1L, ISBN, 1)).toFuture();
+        CompletableFuture<Storage> second = coalescer.execute(new Storage(1L, ISBN, 2)).toFuture();
+        CompletableFuture<Storage> third = coalescer.execute(new Storage(1L, ISBN, 2)).toFuture();
+
+        assertThat(second.get(5, TimeUnit.SECONDS).getIsbn()).isEqualTo(ISBN);
+        assertThat(third.get(5, TimeUnit.SECONDS).getIsbn()).isEqualTo(ISBN);
+        firstAnswer.tryEmitValue(new Storage(1L, ISBN, 99));
+        first.get(5, TimeUnit.SECONDS);
+
+        assertThat(sent).containsExactlyInAnyOrder(1, 4, 2, 2);
+        assertThat(meterRegistry.get("orders.storage.coalesced.fallbacks").counter().count()).isEqualTo(2.0);
+    }
+
+    @Test
+    void cancelledLeaderDoesNotTakeTheBatchWithIt() throws Exception {
+        ReactiveStorageCallCoalescer coalescer = coalescer(firstHeld(storage -> Mono.fromCallable(() -> sell(storage, 100))), 50L, 50);
+
+        CompletableFuture<Storage> first = coalescer.execute(new Storage(1L, ISBN, 1)).toFuture();
+        Disposable leader = coalescer.execute(new Storage(1L, ISBN, 2)).subscribe();
+        CompletableFuture<Storage> joined = coalescer.execute(new Storage(1L, ISBN, 3)).toFuture();
+        leader.dispose();
+
+        assertThat(joined.get(5, TimeUnit.SECONDS).getIsbn()).isEqualTo(ISBN);
+        firstAnswer.tryEmitValue(new Storage(1L, ISBN, 99));
+        first.get(5, TimeUnit.SECONDS);
+
+        // the cancelled order is not bought
+        assertThat(sent).containsExactlyInAnyOrder(1, 3);
+    }
+
+    @Test
+    void failureReachesEveryOrderOfTheBatch() {
+        ReactiveStorageCallCoalescer coalescer = coalescer(storage -> Mono.error(new IllegalStateException("storage down")), 10L, 50);
+
+        assertThatThrownBy(() -> coalescer.execute(new Storage(1L, ISBN, 1)).block(Duration.ofSeconds(5)))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessage("storage down");
+    }
+
+    // the first call stays in flight until firstAnswer is emitted, the later ones are answered by the given call
+    private Function<Storage, Mono<Storage>> firstHeld(Function<Storage, Mono<Storage>> call) {
+        return storage -> {
+            if (calls.getAndIncrement() == 0) {
+                sent.add(storage.getQuantity());
+                return firstAnswer.asMono();
+            }
+            return call.apply(storage);
+        };
+    }
+
+    private ReactiveStorageCallCoalescer coalescer(Function<Storage, Mono<Storage>> call, long windowMs, int maxBatch) {
+        return new ReactiveStorageCallCoalescer(meterRegistry, "buyBook", call, windowMs, maxBatch);
+    }
+
+    private Storage sell(Storage storage, int stock) {
+        sent.add(storage.getQuantity());
+        return new Storage(storage.getId(), storage.getIsbn(), stock - storage.getQuantity());
+    }
+}
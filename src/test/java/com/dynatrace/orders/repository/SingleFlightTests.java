@@ -0,0 +1,145 @@
+package com.dynatrace.orders.repository;
+
+import com.dynatrace.orders.model.Storage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SingleFlightTests {
+    private SimpleMeterRegistry meterRegistry;
+    private SingleFlight<Storage> singleFlight;
+    private ExecutorService executor;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        singleFlight = new SingleFlight<>(meterRegistry, "storage", "find", StorageRepository::copy);
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void waiterGetsItsOwnCopyOfTheLeadersAnswer() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+        Future<Storage> leader = executor.submit(() -> {
+            Storage storage = singleFlight.execute("42", () -> {
+                calls.incrementAndGet();
+                await(release);
+                return new Storage(1L, "42", 10);
+            });
+            storage.setQuantity(3); // what buyFromStorage does with its answer
+            return storage;
+        });
+        waitForCallInFlight(calls);
+
+        Future<Storage> waiter = executor.submit(() ->
+                singleFlight.execute("42", () -> {
+                    calls.incrementAndGet();
+                    return new Storage(1L, "42", -1);
+                }));
+        waitForCollapsed(1);
+        release.countDown();
+
+        assertThat(leader.get(5, TimeUnit.SECONDS).getQuantity()).isEqualTo(3);
+        Storage waited = waiter.get(5, TimeUnit.SECONDS);
+        assertThat(waited.getQuantity()).isEqualTo(10);
+        assertThat(waited).isNotSameAs(leader.get());
+        assertThat(calls.get()).isEqualTo(1);
+    }
+
+    @Test
+    void waiterGetsTheLeadersFailure() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+        Future<Storage> leader = executor.submit(() -> singleFlight.execute("42", () -> {
+            calls.incrementAndGet();
+            await(release);
+            throw new IllegalStateException("storage down");
+        }));
+        waitForCallInFlight(calls);
+
+        Future<Storage> waiter = executor.submit(() ->
+                singleFlight.execute("42", () -> new Storage(1L, "42", 10)));
+        waitForCollapsed(1);
+        release.countDown();
+
+        assertThatThrownBy(() -> leader.get(5, TimeUnit.SECONDS)).hasCauseInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> waiter.get(5, TimeUnit.SECONDS))
+                .hasCauseInstanceOf(IllegalStateException.class)
+                .hasRootCauseMessage("storage down");
+    }
+
+    @Test
+    void errorOfTheLeaderDoesNotLeaveWaitersBlocked() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+        Future<Storage> leader = executor.submit(() -> singleFlight.execute("42", () -> {
+            calls.incrementAndGet();
+            await(release);
+            throw new AssertionError("broken");
+        }));
+        waitForCallInFlight(calls);
+
+        Future<Storage> waiter = executor.submit(() ->
+                singleFlight.execute("42", () -> new Storage(1L, "42", 10)));
+        waitForCollapsed(1);
+        release.countDown();
+
+        assertThatThrownBy(() -> leader.get(5, TimeUnit.SECONDS)).hasCauseInstanceOf(AssertionError.class);
+        assertThatThrownBy(() -> waiter.get(5, TimeUnit.SECONDS)).hasCauseInstanceOf(AssertionError.class);
+    }
+
+    @Test
+    void callsAfterTheAnswerAreNotCollapsed() {
+        AtomicInteger calls = new AtomicInteger();
+        singleFlight.execute("42", () -> new Storage(1L, "42", calls.incrementAndGet()));
+        Storage second = singleFlight.execute("42", () -> new Storage(1L, "42", calls.incrementAndGet()));
+
+        assertThat(second.getQuantity()).isEqualTo(2);
+        assertThat(collapsed()).isZero();
+    }
+
+    private void waitForCallInFlight(AtomicInteger calls) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (calls.get() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertThat(calls.get()).isEqualTo(1);
+    }
+
+    private void waitForCollapsed(int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (collapsed() < expected && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertThat(collapsed()).isEqualTo(expected);
+    }
+
+    private double collapsed() {
+        return meterRegistry.get("orders.downstream.collapsed").counter().count();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.dynatrace.orders.repository;
+
+import com.dynatrace.orders.exception.PurchaseForbiddenException;
+import com.dynatrace.orders.model.Storage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class StorageCallCoalescerTests {
+    private static final String ISBN = "9780000000042";
+    private SimpleMeterRegistry meterRegistry;
+    private ExecutorService executor;
+    private final List<Integer> sent = new CopyOnWriteArrayList<>();
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void callWithNoneInFlightIsNotDelayed() {
+        StorageCallCoalescer coalescer = coalescer(storage -> sell(storage, 100), 10_000L);
+
+        long start = System.nanoTime();
+        Storage result = coalescer.execute(new Storage(1L, ISBN, 2));
+
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(5_000L);
+        assertThat(result.getQuantity()).isEqualTo(98);
+        assertThat(sent).containsExactly(2);
+    }
+
+    @Test
+    void callsArrivingWhileOneIsInFlightShareTheNextCall() throws Exception {
+        CountDownLatch firstSent = new CountDownLatch(1);
+        CountDownLatch releaseFirst = new CountDownLatch(1);
+        StorageCallCoalescer coalescer = coalescer(storage -> {
+            if (calls.getAndIncrement() == 0) {
+                firstSent.countDown();
+                await(releaseFirst);
+            }
+            return sell(storage, 100);
+        }, 200L, 3);
+
+        Future<Storage> first = executor.submit(() -> coalescer.execute(new Storage(1L, ISBN, 1)));
+        assertThat(firstSent.await(5, TimeUnit.SECONDS)).isTrue();
+        List<Future<Storage>> joined = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            joined.add(executor.submit(() -> coalescer.execute(new Storage(1L, ISBN, 2))));
+        }
+        for (Future<Storage> call : joined) {
+            assertThat(call.get(5, TimeUnit.SECONDS).getIsbn()).isEqualTo(ISBN);
+        }
+        releaseFirst.countDown();
+        first.get(5, TimeUnit.SECONDS);
+
+        assertThat(sent).containsExactlyInAnyOrder(1, 6);
+    }
+
+    @Test
+    void refusedBatchFallsBackToOneCallPerOrder() throws Exception {
+        CountDownLatch firstSent = new CountDownLatch(1);
+        CountDownLatch releaseFirst = new CountDownLatch(1);
+        StorageCallCoalescer coalescer = coalescer(storage -> {
+            if (calls.getAndIncrement() == 0) {
+                firstSent.countDown();
+                await(releaseFirst);
+            }
+            if (storage.getQuantity() > 3) {
+                sent.add(storage.getQuantity());
+                throw new PurchaseForbiddenException("Purchase was rejected, ISBN: " + ISBN);
+            }
+            return sell(storage, 100);
+        }, 200L, 2);
+
+        Future<Storage> first = executor.submit(() -> coalescer.execute(new Storage(1L, ISBN, 1)));
+        assertThat(firstSent.await(5, TimeUnit.SECONDS)).isTrue();
+        Future<Storage> second = executor.submit(() -> coalescer.execute(new Storage(1L, ISBN, 2)));
+        Future<Storage> third = executor.submit(() -> coalescer.execute(new Storage(1L, ISBN, 2)));
+
+        assertThat(second.get(5, TimeUnit.SECONDS).getIsbn()).isEqualTo(ISBN);
+        assertThat(third.get(5, TimeUnit.SECONDS).getIsbn()).isEqualTo(ISBN);
+        releaseFirst.countDown();
+        first.get(5, TimeUnit.SECONDS);
+
+        assertThat(sent).containsExactlyInAnyOrder(1, 4, 2, 2);
+        assertThat(meterRegistry.get("orders.storage.coalesced.fallbacks").counter().count()).isEqualTo(2.0);
+    }
+
+    @Test
+    void failureReachesEveryOrderOfTheBatch() {
+        StorageCallCoalescer coalescer = coalescer(storage -> {
+            throw new IllegalStateException("storage down");
+        }, 10L);
+
+        assertThatThrownBy(() -> coalescer.execute(new Storage(1L, ISBN, 1)))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessage("storage down");
+    }
+
+    private StorageCallCoalescer coalescer(Function<Storage, Storage> call, long windowMs) {
+        return coalescer(call, windowMs, 50);
+    }
+
+    private StorageCallCoalescer coalescer(Function<Storage, Storage> call, long windowMs, int maxBatch) {
+        return new StorageCallCoalescer(meterRegistry, "buyBook", call, windowMs, maxBatch);
+    }
+
+    private Storage sell(Storage storage, int stock) {
+        sent.add(storage.getQuantity());
+        return new Storage(storage.getId(), storage.getIsbn(), stock - storage.getQuantity());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
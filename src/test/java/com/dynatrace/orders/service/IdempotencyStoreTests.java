@@ -0,0 +1,205 @@
+package com.dynatrace.orders.service;
+
+import com.dynatrace.orders.exception.BadRequestException;
+import com.dynatrace.orders.exception.ConflictException;
+import com.dynatrace.orders.exception.TimeOutException;
+import com.dynatrace.orders.model.IdempotencyRecord;
+import com.dynatrace.orders.model.Storage;
+import com.dynatrace.orders.repository.IdempotencyRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.Date;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class IdempotencyStoreTests {
+    private static final String KEY = "key-1";
+    private IdempotencyRepository repository;
+    private IdempotencyStore store;
+    private ExecutorService executor;
+
+    @BeforeEach
+    void setUp() {
+        repository = mock(IdempotencyRepository.class);
+        when(repository.claim(anyString(), anyString())).thenReturn(true);
+        store = newStore(repository);
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void duplicateKeyReplaysTheFirstResponse() {
+        AtomicInteger runs = new AtomicInteger();
+        Storage first = store.execute(KEY, "submit", "request", Storage.class, () -> new Storage(runs.incrementAndGet(), "42", 5));
+        Storage second = store.execute(KEY, "submit", "request", Storage.class, () -> new Storage(runs.incrementAndGet(), "42", 5));
+
+        assertThat(runs.get()).isEqualTo(1);
+        assertThat(second.getId()).isEqualTo(first.getId());
+        assertThat(second.getQuantity()).isEqualTo(5);
+        verify(repository, times(1)).claim(eq(KEY), anyString());
+    }
+
+    @Test
+    void concurrentDuplicateWaitsForTheFirstRequest() throws Exception {
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger runs = new AtomicInteger();
+        Future<Storage> first = executor.submit(() -> store.execute(KEY, "submit", "request", Storage.class, () -> {
+            runs.incrementAndGet();
+            running.countDown();
+            await(release);
+            return new Storage(7L, "42", 5);
+        }));
+        assertThat(running.await(5, TimeUnit.SECONDS)).isTrue();
+
+        Future<Storage> duplicate = executor.submit(() ->
+                store.execute(KEY, "submit", "request", Storage.class, () -> new Storage(runs.incrementAndGet(), "42", 5)));
+        release.countDown();
+
+        assertThat(first.get(5, TimeUnit.SECONDS).getId()).isEqualTo(7L);
+        assertThat(duplicate.get(5, TimeUnit.SECONDS).getId()).isEqualTo(7L);
+        assertThat(runs.get()).isEqualTo(1);
+    }
+
+    @Test
+    void keyReusedForAnotherRequestIsRejected() {
+        store.execute(KEY, "submit", "request", Storage.class, () -> new Storage(1L, "42", 5));
+
+        assertThatThrownBy(() -> store.execute(KEY, "submit", "other request", Storage.class, () -> new Storage(2L, "42", 5)))
+                .isInstanceOf(BadRequestException.class);
+    }
+
+    @Test
+    void duplicateOnAnotherInstanceReplaysTheStoredResponse() {
+        Storage first = store.execute(KEY, "submit", "request", Storage.class, () -> new Storage(3L, "42", 5));
+        ArgumentCaptor<String> fingerprint = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<String> body = ArgumentCaptor.forClass(String.class);
+        verify(repository).claim(eq(KEY), fingerprint.capture());
+        verify(repository).complete(eq(KEY), eq(200), body.capture());
+
+        IdempotencyRepository shared = mock(IdempotencyRepository.class);
+        when(shared.claim(anyString(), anyString())).thenReturn(false);
+        when(shared.find(KEY)).thenReturn(Optional.of(new IdempotencyRecord(KEY, fingerprint.getValue(), 200, body.getValue(), new Date())));
+        AtomicInteger runs = new AtomicInteger();
+        Storage replayed = newStore(shared).execute(KEY, "submit", "request", Storage.class,
+                () -> new Storage(runs.incrementAndGet(), "42", 5));
+
+        assertThat(runs.get()).isZero();
+        assertThat(replayed.getId()).isEqualTo(first.getId());
+    }
+
+    @Test
+    void responseTheDbDidNotTakeIsReplayedAndStoredLater() {
+        doThrow(new DataAccessResourceFailureException("db down")).doNothing()
+                .when(repository).complete(eq(KEY), anyInt(), anyString());
+        AtomicInteger runs = new AtomicInteger();
+
+        Storage first = store.execute(KEY, "submit", "request", Storage.class, () -> new Storage(runs.incrementAndGet(), "42", 5));
+        Storage duplicate = store.execute(KEY, "submit", "request", Storage.class, () -> new Storage(runs.incrementAndGet(), "42", 5));
+        store.storeUnsaved();
+        store.storeUnsaved();
+
+        assertThat(runs.get()).isEqualTo(1);
+        assertThat(duplicate.getId()).isEqualTo(first.getId());
+        verify(repository, times(2)).complete(eq(KEY), eq(200), anyString());
+        verify(repository, never()).release(KEY);
+    }
+
+    @Test
+    void failedRequestReleasesTheKeyForARetry() {
+        doNothing().when(repository).release(KEY);
+        assertThatThrownBy(() -> store.execute(KEY, "submit", "request", Storage.class, () -> {
+            throw new IllegalStateException("storage down");
+        })).isInstanceOf(IllegalStateException.class);
+
+        Storage retried = store.execute(KEY, "submit", "request", Storage.class, () -> new Storage(9L, "42", 5));
+
+        assertThat(retried.getId()).isEqualTo(9L);
+        verify(repository).release(KEY);
+    }
+
+    @Test
+    void transientRejectionReleasesTheKeyForARetry() {
+        doNothing().when(repository).release(KEY);
+        assertThatThrownBy(() -> store.execute(KEY, "submit", "request", Storage.class, () -> {
+            throw new ConflictException("The order is locked by another request");
+        })).isInstanceOf(ConflictException.class);
+        assertThatThrownBy(() -> store.execute(KEY, "submit", "request", Storage.class, () -> {
+            throw new TimeOutException("Verification timed out");
+        })).isInstanceOf(TimeOutException.class);
+
+        Storage retried = store.execute(KEY, "submit", "request", Storage.class, () -> new Storage(9L, "42", 5));
+
+        assertThat(retried.getId()).isEqualTo(9L);
+        verify(repository, times(2)).release(KEY);
+        verify(repository, never()).complete(eq(KEY), eq(409), anyString());
+        verify(repository, never()).complete(eq(KEY), eq(408), anyString());
+    }
+
+    @Test
+    void deterministicRejectionIsReplayed() {
+        AtomicInteger calls = new AtomicInteger();
+        assertThatThrownBy(() -> store.execute(KEY, "submit", "request", Storage.class, () -> {
+            calls.incrementAndGet();
+            throw new BadRequestException("Quantity must be positive");
+        })).isInstanceOf(BadRequestException.class);
+
+        assertThatThrownBy(() -> store.execute(KEY, "submit", "request", Storage.class, () -> {
+            calls.incrementAndGet();
+            return new Storage(9L, "42", 5);
+        })).isInstanceOf(ResponseStatusException.class);
+
+        assertThat(calls).hasValue(1);
+        verify(repository).complete(eq(KEY), eq(400), anyString());
+        verify(repository, never()).release(KEY);
+    }
+
+    private static IdempotencyStore newStore(IdempotencyRepository repository) {
+        IdempotencyStore store = new IdempotencyStore();
+        ReflectionTestUtils.setField(store, "idempotencyRepository", repository);
+        ReflectionTestUtils.setField(store, "objectMapper", new ObjectMapper());
+        ReflectionTestUtils.setField(store, "ttlMs", 60_000L);
+        ReflectionTestUtils.setField(store, "maxSize", 1_000L);
+        ReflectionTestUtils.setField(store, "waitTimeoutMs", 5_000L);
+        ReflectionTestUtils.setField(store, "leaseMs", 60_000L);
+        store.init();
+        return store;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
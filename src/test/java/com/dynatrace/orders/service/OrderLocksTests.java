@@ -0,0 +1,123 @@
+package com.dynatrace.orders.service;
+
+import com.dynatrace.orders.exception.ConflictException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class OrderLocksTests {
+    private static final String EMAIL = "reader@example.com";
+    private static final String ISBN = "9780000000042";
+    private SimpleMeterRegistry meterRegistry;
+    private OrderLocks orderLocks;
+    private ExecutorService executor;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        orderLocks = new OrderLocks();
+        ReflectionTestUtils.setField(orderLocks, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(orderLocks, "stripeCount", 1024);
+        ReflectionTestUtils.setField(orderLocks, "acquireTimeoutMs", 100L);
+        ReflectionTestUtils.setField(orderLocks, "mode", "local");
+        orderLocks.init();
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void secondRequestForTheSameOrderTimesOutWithConflict() throws Exception {
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<String> holder = executor.submit(() -> orderLocks.withLock(EMAIL, ISBN, () -> {
+            locked.countDown();
+            await(release);
+            return "first";
+        }));
+        assertThat(locked.await(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThatThrownBy(() -> orderLocks.withLock(EMAIL, ISBN, () -> "second"))
+                .isInstanceOf(ConflictException.class)
+                .satisfies(ex -> assertThat(((ConflictException) ex).getStatus()).isEqualTo(HttpStatus.CONFLICT));
+        assertThat(meterRegistry.get("orders.locks.contended").counter().count()).isEqualTo(1.0);
+        assertThat(meterRegistry.get("orders.locks.wait").tag("outcome", "TIMEOUT").timer().count()).isEqualTo(1L);
+
+        release.countDown();
+        assertThat(holder.get(5, TimeUnit.SECONDS)).isEqualTo("first");
+        assertThat(orderLocks.withLock(EMAIL, ISBN, () -> "third")).isEqualTo("third");
+    }
+
+    @Test
+    void lockIsReleasedWhenTheActionFails() {
+        assertThatThrownBy(() -> orderLocks.withLock(EMAIL, ISBN, () -> {
+            throw new IllegalStateException("payment down");
+        })).isInstanceOf(IllegalStateException.class);
+
+        assertThat(orderLocks.withLock(EMAIL, ISBN, () -> "next")).isEqualTo("next");
+    }
+
+    @Test
+    void reactiveLockIsReleasedWhenTheMonoCompletes() {
+        assertThat(orderLocks.withLock(EMAIL, ISBN, Mono.just("reactive")).block()).isEqualTo("reactive");
+        assertThatThrownBy(() -> orderLocks.withLock(EMAIL, ISBN, Mono.<String>error(new IllegalStateException("down"))).block())
+                .isInstanceOf(IllegalStateException.class);
+
+        assertThat(orderLocks.withLock(EMAIL, ISBN, () -> "blocking")).isEqualTo("blocking");
+    }
+
+    @Test
+    void ordersSharingAStripeAreLockedTogetherOnce() {
+        ReflectionTestUtils.setField(orderLocks, "stripeCount", 1);
+        orderLocks.init();
+
+        assertThat(orderLocks.withLocks(ISBN, List.of(EMAIL, "other@example.com"), () -> "batch")).isEqualTo("batch");
+        assertThat(orderLocks.withLock(EMAIL, ISBN, () -> "next")).isEqualTo("next");
+    }
+
+    @Test
+    void groupLockTimesOutWhileOneOfItsOrdersIsLocked() throws Exception {
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<String> holder = executor.submit(() -> orderLocks.withLock(EMAIL, ISBN, () -> {
+            locked.countDown();
+            await(release);
+            return "single";
+        }));
+        assertThat(locked.await(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThatThrownBy(() -> orderLocks.withLocks(ISBN, List.of("other@example.com", EMAIL), () -> "batch"))
+                .isInstanceOf(ConflictException.class);
+        // the stripes taken before the timeout were given back
+        assertThat(orderLocks.withLock("other@example.com", ISBN, () -> "other")).isEqualTo("other");
+
+        release.countDown();
+        assertThat(holder.get(5, TimeUnit.SECONDS)).isEqualTo("single");
+        assertThat(orderLocks.withLocks(ISBN, List.of("other@example.com", EMAIL), () -> "batch")).isEqualTo("batch");
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
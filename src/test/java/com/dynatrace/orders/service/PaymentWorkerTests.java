@@ -0,0 +1,153 @@
+package com.dynatrace.orders.service;
+
+import com.dynatrace.orders.exception.PaymentException;
+import com.dynatrace.orders.model.Payment;
+import com.dynatrace.orders.model.PaymentOutboxEntry;
+import com.dynatrace.orders.model.Storage;
+import com.dynatrace.orders.repository.PaymentOutboxRepository;
+import com.dynatrace.orders.repository.PaymentRepository;
+import com.dynatrace.orders.repository.StorageRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PaymentWorkerTests {
+    private static final String PAYMENT_KEY = "orders-payment-outbox-5";
+    private PaymentOutboxRepository outboxRepository;
+    private PaymentOutbox paymentOutbox;
+    private PaymentRepository paymentRepository;
+    private StorageRepository storageRepository;
+    private PaymentWorker worker;
+
+    @BeforeEach
+    void setUp() {
+        outboxRepository = mock(PaymentOutboxRepository.class);
+        paymentOutbox = mock(PaymentOutbox.class);
+        paymentRepository = mock(PaymentRepository.class);
+        storageRepository = mock(StorageRepository.class);
+        when(paymentOutbox.settle(any(), eq(true))).thenReturn(Optional.empty());
+        when(paymentOutbox.settle(any(), eq(false))).thenReturn(Optional.empty());
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        OrderFlowMetrics flowMetrics = new OrderFlowMetrics();
+        ReflectionTestUtils.setField(flowMetrics, "meterRegistry", meterRegistry);
+
+        worker = new PaymentWorker();
+        ReflectionTestUtils.setField(worker, "outboxRepository", outboxRepository);
+        ReflectionTestUtils.setField(worker, "paymentOutbox", paymentOutbox);
+        ReflectionTestUtils.setField(worker, "paymentRepository", paymentRepository);
+        ReflectionTestUtils.setField(worker, "storageRepository", storageRepository);
+        ReflectionTestUtils.setField(worker, "flowMetrics", flowMetrics);
+        ReflectionTestUtils.setField(worker, "statusEvents", mock(PaymentStatusEvents.class));
+        ReflectionTestUtils.setField(worker, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(worker, "paymentMode", "async");
+        ReflectionTestUtils.setField(worker, "workers", 4);
+        ReflectionTestUtils.setField(worker, "batchSize", 10);
+        ReflectionTestUtils.setField(worker, "leaseMs", 60_000L);
+        ReflectionTestUtils.setField(worker, "maxAttempts", 3);
+        ReflectionTestUtils.setField(worker, "backoffMs", 1_000L);
+        ReflectionTestUtils.setField(worker, "maxBackoffMs", 60_000L);
+    }
+
+    @Test
+    void timedOutPaymentIsRetriedWithTheSameKey() throws Exception {
+        when(paymentRepository.submitPayment(any(), anyString()))
+                .thenThrow(new ResourceAccessException("Read timed out"))
+                .thenReturn(new Payment(42L, 10.0, "reader@example.com", true, "paid"));
+
+        pollOnce(entry(PaymentOutboxEntry.STAGE_PAY, 1));
+        verify(outboxRepository).reschedule(eq(5L), eq(1_000L), anyString());
+        pollOnce(entry(PaymentOutboxEntry.STAGE_PAY, 2));
+
+        verify(paymentRepository, times(2)).submitPayment(any(), eq(PAYMENT_KEY));
+        verify(paymentOutbox).settle(any(), eq(true));
+        verify(storageRepository, never()).returnBook(any());
+    }
+
+    @Test
+    void declinedPaymentReturnsTheBooks() throws Exception {
+        when(paymentRepository.submitPayment(any(), anyString())).thenThrow(new PaymentException("Payment rejected"));
+        when(storageRepository.returnBook(any())).thenReturn(new Storage(7L, "9780000000042", 3));
+
+        pollOnce(entry(PaymentOutboxEntry.STAGE_PAY, 1));
+
+        verify(outboxRepository).toCompensation(eq(5L), anyString());
+        verify(storageRepository).returnBook(any());
+        verify(paymentOutbox).settle(any(), eq(false));
+    }
+
+    @Test
+    void paymentThatKeepsFailingIsCompensatedAfterMaxAttempts() throws Exception {
+        when(paymentRepository.submitPayment(any(), anyString())).thenThrow(new ResourceAccessException("Read timed out"));
+        when(storageRepository.returnBook(any())).thenReturn(new Storage(7L, "9780000000042", 3));
+
+        pollOnce(entry(PaymentOutboxEntry.STAGE_PAY, 3));
+
+        verify(outboxRepository, never()).reschedule(anyLong(), anyLong(), anyString());
+        verify(outboxRepository).toCompensation(eq(5L), anyString());
+        verify(paymentOutbox).settle(any(), eq(false));
+    }
+
+    @Test
+    void failedSettleKeepsTheEntryAndPaysWithTheSameKeyAgain() throws Exception {
+        when(paymentRepository.submitPayment(any(), anyString()))
+                .thenReturn(new Payment(42L, 10.0, "reader@example.com", true, "paid"));
+        when(paymentOutbox.settle(any(), eq(true)))
+                .thenThrow(new IllegalStateException("db down"))
+                .thenReturn(Optional.empty());
+
+        pollOnce(entry(PaymentOutboxEntry.STAGE_PAY, 1));
+        // the lease ran out, the entry comes back
+        pollOnce(entry(PaymentOutboxEntry.STAGE_PAY, 2));
+
+        verify(paymentRepository, times(2)).submitPayment(any(), eq(PAYMENT_KEY));
+        verify(paymentOutbox, times(2)).settle(any(), eq(true));
+        verify(storageRepository, never()).returnBook(any());
+    }
+
+    @Test
+    void failedSettleOnTheLastAttemptIsRescheduledNotCompensated() throws Exception {
+        when(paymentRepository.submitPayment(any(), anyString()))
+                .thenReturn(new Payment(42L, 10.0, "reader@example.com", true, "paid"));
+        when(paymentOutbox.settle(any(), eq(true))).thenThrow(new IllegalStateException("db down"));
+
+        pollOnce(entry(PaymentOutboxEntry.STAGE_PAY, 3));
+
+        verify(outboxRepository).reschedule(eq(5L), anyLong(), eq("db down"));
+        verify(outboxRepository, never()).toCompensation(anyLong(), anyString());
+        verify(storageRepository, never()).returnBook(any());
+        verify(paymentOutbox, never()).settle(any(), eq(false));
+    }
+
+    private void pollOnce(PaymentOutboxEntry entry) throws InterruptedException {
+        when(outboxRepository.claim(anyInt(), anyLong())).thenReturn(List.of(entry));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        ReflectionTestUtils.setField(worker, "executor", executor);
+        worker.poll();
+        executor.shutdown();
+        assertThat(executor.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    private static PaymentOutboxEntry entry(String stage, int attempts) {
+        return new PaymentOutboxEntry(5L, 42L, "reader@example.com", "9780000000042", 3, 7L, 10.0, stage, attempts);
+    }
+}